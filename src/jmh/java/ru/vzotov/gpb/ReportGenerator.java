@@ -0,0 +1,78 @@
+package ru.vzotov.gpb;
+
+import ru.vzotov.gpb.domain.model.GpbOperation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates GPB reports of the given size with reproducible content
+ */
+public final class ReportGenerator {
+
+    public static final String HEADER = "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус";
+
+    public static final List<String> ACCOUNTS = List.of(
+            "40817810518370123456", "40817810518370654321", "42307810518370000001", "42307810518370000002");
+
+    private static final String[] DESCRIPTIONS = {
+            "Перевод  в онлайн-сервисе согласно распоряжению BPC",
+            "Выплата начисленных процентов по вкладу N НСРП-ФН/20-",
+            "Оплата услуг, \"Домашний банк\" N ",
+            "Перевод с карты на карту "
+    };
+
+    private static final DateTimeFormatter DATETIME_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+
+    private static final LocalDateTime START = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+
+    private ReportGenerator() {
+    }
+
+    public static void write(Path file, int rows, long seed) throws IOException {
+        final Random random = new Random(seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (int i = 0; i < rows; i++) {
+                final String account = ACCOUNTS.get(random.nextInt(ACCOUNTS.size()));
+                final String date = START.plusSeconds(i * 61L).format(DATETIME_FORMAT);
+                final String description = DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)] + random.nextInt(1_000_000);
+                final long kopecks = random.nextInt(10_000_000);
+                final String amount = (kopecks / 100) + "," + String.format("%02d", kopecks % 100);
+                final boolean deposit = random.nextInt(4) == 0;
+
+                writer.write(account);
+                writer.write(',');
+                writer.write(date);
+                writer.write(",\"");
+                writer.write(description.replace("\"", "\"\""));
+                writer.write("\",");
+                writer.write(deposit ? "\"" + amount + "\",," : ",\"-" + amount + "\",");
+                writer.write("RUR,,Исполнено\n");
+            }
+        }
+    }
+
+    public static List<GpbOperation> operations(int rows, long seed) {
+        final Random random = new Random(seed);
+        final List<GpbOperation> operations = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            final String account = ACCOUNTS.get(random.nextInt(ACCOUNTS.size()));
+            final String description = DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)] + random.nextInt(1_000_000);
+            final double amount = random.nextInt(10_000_000) / 100d;
+            final boolean deposit = random.nextInt(4) == 0;
+            operations.add(new GpbOperation(START.plusSeconds(i * 61L), account, null,
+                    deposit ? amount : -amount, "RUR", description, false));
+        }
+        return operations;
+    }
+}
@@ -0,0 +1,111 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.vzotov.accounting.application.AccountNotFoundException;
+import ru.vzotov.accounting.application.AccountReportNotFoundException;
+import ru.vzotov.accounting.application.AccountingService;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.accounting.domain.model.AccountRepository;
+import ru.vzotov.accounting.domain.model.CardRepository;
+import ru.vzotov.banking.domain.model.Account;
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.BankId;
+import ru.vzotov.banking.domain.model.OperationId;
+import ru.vzotov.gpb.GazprombankConfig;
+import ru.vzotov.gpb.ReportGenerator;
+import ru.vzotov.gpb.application.BatchAccountingService;
+import ru.vzotov.gpb.application.OperationRegistration;
+import ru.vzotov.gpb.domain.model.GpbOperation;
+import ru.vzotov.gpb.domain.model.GpbReportRepository;
+import ru.vzotov.person.domain.model.PersonId;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolution and registration of a parsed report by {@link AccountReportServiceGpb#processAccountReport}.
+ * Repositories are in-memory stand-ins, so the benchmark measures the module's own overhead only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ProcessAccountReportBenchmark {
+
+    private static final OperationId OPERATION_ID = new OperationId("benchmark");
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private AccountReportServiceGpb service;
+
+    private AccountReportId reportId;
+
+    /**
+     * Accounting service that only counts registered operations
+     */
+    private static final class CountingAccountingService implements BatchAccountingService {
+        private Blackhole blackhole;
+
+        @Override
+        public List<OperationId> registerOperations(List<OperationRegistration> operations) {
+            blackhole.consume(operations);
+            return Collections.nCopies(operations.size(), OPERATION_ID);
+        }
+
+        @Override
+        public void removeMatchingHoldOperations(List<OperationId> operationIds) {
+            blackhole.consume(operationIds);
+        }
+    }
+
+    private final CountingAccountingService batchAccountingService = new CountingAccountingService();
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        final List<GpbOperation> operations = ReportGenerator.operations(rows, 42);
+        reportId = new AccountReportId("report.csv", Instant.now());
+
+        final GpbReportRepository reportRepository = Mockito.mock(GpbReportRepository.class);
+        Mockito.when(reportRepository.stream(reportId)).thenAnswer(invocation -> operations.stream());
+
+        final AccountRepository accountRepository = Mockito.mock(AccountRepository.class);
+        for (String number : ReportGenerator.ACCOUNTS) {
+            final AccountNumber accountNumber = new AccountNumber(number);
+            Mockito.when(accountRepository.find(accountNumber)).thenReturn(new Account(accountNumber,
+                    number, BankId.GAZPROMBANK, Currency.getInstance("RUR"), new PersonId("benchmark")));
+        }
+
+        final GazprombankConfig config = new GazprombankConfig();
+        config.setBatchSize(batchSize);
+        service = new AccountReportServiceGpb(reportRepository, Mockito.mock(AccountingService.class),
+                accountRepository, Mockito.mock(CardRepository.class), config);
+        batchAccountingService.blackhole = blackhole;
+        service.setBatchAccountingService(batchAccountingService);
+    }
+
+    @Benchmark
+    public void processAccountReport() throws AccountReportNotFoundException, AccountNotFoundException {
+        service.processAccountReport(reportId);
+    }
+}
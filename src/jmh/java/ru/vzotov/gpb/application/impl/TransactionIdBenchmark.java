@@ -0,0 +1,52 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.DigestUtils;
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.gpb.domain.model.GpbOperation;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of operations into transaction references
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionIdBenchmark {
+
+    private final AccountNumber accountNumber = new AccountNumber("40817810518370123456");
+
+    private final GpbOperation operation = new GpbOperation(LocalDateTime.of(2021, 3, 7, 0, 0, 0),
+            accountNumber.number(), null, -4657.48d, "RUR",
+            "Перевод  в онлайн-сервисе согласно распоряжению BPC123456789", false);
+
+    @Benchmark
+    public String transactionId() {
+        return GpbOperationResolver.transactionId(operation, accountNumber);
+    }
+
+    /**
+     * Identifier computed by concatenation as it was done before the fingerprint, for reference
+     */
+    @Benchmark
+    public String concatenation() {
+        return DigestUtils.md5DigestAsHex(
+                (operation.operationDate().toString() + "_" + accountNumber.number() + "_"
+                        + Double.toString(operation.operationAmount()) + "_" + operation.description())
+                        .getBytes(StandardCharsets.UTF_8));
+    }
+}
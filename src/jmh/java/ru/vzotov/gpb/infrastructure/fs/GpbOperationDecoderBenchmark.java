@@ -0,0 +1,96 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.vzotov.gpb.ReportGenerator;
+import ru.vzotov.gpb.domain.model.GpbOperation;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of a single row and of its fields
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GpbOperationDecoderBenchmark {
+
+    private static final String[] VALUES = {
+            "40817810518370123456", "07.03.2021 00:00:00",
+            "Перевод  в онлайн-сервисе согласно распоряжению BPC123456789", "", "-4657,48", "RUB", "", "Исполнено"
+    };
+
+    private GpbOperationDecoder decoder;
+
+    private GpbOperationDecoder.Row row;
+
+    @Setup
+    public void setUp() {
+        final List<String> header = Arrays.asList(ReportGenerator.HEADER.split(","));
+        final Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i), i);
+        }
+        decoder = GpbOperationDecoder.forHeader(columns);
+        row = new GpbOperationDecoder.Row() {
+            @Override
+            public CharSequence chars(int column) {
+                return VALUES[column];
+            }
+
+            @Override
+            public String string(int column) {
+                return VALUES[column];
+            }
+        };
+    }
+
+    @Benchmark
+    public GpbOperation decode() {
+        return decoder.decode(row);
+    }
+
+    @Benchmark
+    public long parseAmountMinor() {
+        return GpbOperationDecoder.parseAmountMinor(VALUES[4]);
+    }
+
+    /**
+     * Amount parsing as it was done before the decoder, for reference
+     */
+    @Benchmark
+    public double parseAmountDecimalFormat() throws ParseException {
+        return new DecimalFormat("###.##", DecimalFormatSymbols.getInstance(new Locale("ru")))
+                .parse(VALUES[4]).doubleValue();
+    }
+
+    @Benchmark
+    public LocalDateTime parseDateTime() {
+        return GpbOperationDecoder.parseDateTime(VALUES[1]);
+    }
+
+    @Benchmark
+    public String mapCurrency() {
+        return GpbOperationDecoder.mapCurrency(VALUES[5]);
+    }
+}
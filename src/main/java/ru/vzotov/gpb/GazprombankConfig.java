@@ -1,11 +1,161 @@
 package ru.vzotov.gpb;
 
+import ru.vzotov.gpb.infrastructure.fs.ReportReadMode;
+
+import java.time.Duration;
 import java.util.List;
 
 public class GazprombankConfig {
     private List<String> skip;
     private String path;
 
+    /**
+     * Directories of reports in addition to path, reports are saved to path only.
+     * Ids of their reports start with the position in the list counting from 1, e.g. {@code 1:report.csv}
+     */
+    private List<String> paths;
+
+    /**
+     * Pattern of date subdirectories of the report directories, e.g. {@code yyyy/MM}
+     */
+    private String shardPattern;
+
+    /**
+     * Number of shards scanned concurrently, reports are then resolved by parallelism threads per worker
+     */
+    private int shardWorkers = 1;
+
+    /**
+     * Minimum interval between processing runs, if not set reports are processed on the calling thread
+     */
+    private Duration processingInterval;
+
+    /**
+     * Average latency of registering an operation in the accounting above which the pause between processing runs
+     * is doubled, used with processingInterval
+     */
+    private Duration slowRegistration = Duration.ofMillis(500);
+
+    /**
+     * Maximum pause between processing runs while the accounting is slow
+     */
+    private Duration maxProcessingBackoff = Duration.ofMinutes(10);
+
+    /**
+     * File to persist the index of reports to, preferably outside of the reports directory.
+     * If not set the index is kept in memory and the directory is listed once on startup.
+     */
+    private String indexFile;
+
+    /**
+     * Way the reports are read: CSV for commons-csv or MAPPED for scanning of memory-mapped files
+     */
+    private ReportReadMode readMode = ReportReadMode.CSV;
+
+    /**
+     * Keep parsed operations next to the reports as {@code <report>.parsed} and read them instead of parsing
+     * the reports again when reports are reprocessed
+     */
+    private boolean parsedCache;
+
+    /**
+     * Parse uploaded reports while they are saved, rejecting invalid reports and reports with the same content
+     * as an already saved one
+     */
+    private boolean validateUploads;
+
+    /**
+     * Number of reports resolved concurrently, 1 means sequential processing.
+     * Reports in flight are held in memory as a whole
+     */
+    private int parallelism = 1;
+
+    /**
+     * Number of resolved reports registered concurrently by processNewReports when parallelism or shardWorkers
+     * is above 1. Reports sharing an account are registered one after another in the order they were found
+     */
+    private int registrationThreads = 1;
+
+    /**
+     * Number of threads resolving cards and accounts of a report while it is parsed and registered,
+     * 0 processes every report in a single thread
+     */
+    private int pipelineResolveThreads;
+
+    /**
+     * Number of rows passed between the parse, resolve and register stages at once
+     */
+    private int pipelineChunkSize = 1000;
+
+    /**
+     * Number of chunks the parse stage may run ahead of the register stage
+     */
+    private int pipelineQueueCapacity = 4;
+
+    /**
+     * Maximum number of operations registered with a single call of the accounting service
+     */
+    private int batchSize = 100;
+
+    /**
+     * Number of registered rows between checkpoints that let an interrupted report be resumed, 0 disables checkpoints
+     */
+    private int checkpointInterval = 10000;
+
+    /**
+     * Expected number of operations in the filter of registered operations, used when a lookup of registered
+     * operations is available
+     */
+    private long knownReferencesExpected = 1_000_000;
+
+    /**
+     * Probability of false positives of the filter of registered operations
+     */
+    private double knownReferencesFpp = 0.01;
+
+    /**
+     * File to persist the filter of registered operations to. If not set the filter is kept in memory.
+     */
+    private String knownReferencesFile;
+
+    /**
+     * Maximum number of days a hold operation may precede the operation it is matched with, used when a lookup
+     * of hold operations is available
+     */
+    private int holdMatchingDays = 7;
+
+    /**
+     * Number of card and account lookups run concurrently before rows of a report are resolved, on virtual threads
+     * when the runtime supports them. 0 looks cards and accounts up one by one while rows are resolved
+     */
+    private int lookupConcurrency;
+
+    /**
+     * Number of rows whose cards and accounts are looked up at once when lookupConcurrency is above 0.
+     * In the pipeline mode the rows of a chunk are looked up at once
+     */
+    private int lookupPrefetchRows = 10000;
+
+    /**
+     * Maximum number of entries in every cache of cards and accounts shared between reports, 0 disables caching
+     */
+    private int resolutionCacheSize = 1000;
+
+    /**
+     * Time to live of cached cards and accounts
+     */
+    private Duration resolutionCacheTtl = Duration.ofMinutes(30);
+
+    /**
+     * Process new reports as soon as they appear in the report directories or their shard subdirectories
+     */
+    private boolean watch;
+
+    /**
+     * Time the size of a new report must stay unchanged before the report is considered completely written
+     */
+    private Duration watchDebounce = Duration.ofSeconds(2);
+
     public List<String> getSkip() {
         return skip;
     }
@@ -21,4 +171,220 @@ public class GazprombankConfig {
     public void setPath(String path) {
         this.path = path;
     }
+
+    public String getIndexFile() {
+        return indexFile;
+    }
+
+    public void setIndexFile(String indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    public ReportReadMode getReadMode() {
+        return readMode;
+    }
+
+    public void setReadMode(ReportReadMode readMode) {
+        this.readMode = readMode;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getResolutionCacheSize() {
+        return resolutionCacheSize;
+    }
+
+    public void setResolutionCacheSize(int resolutionCacheSize) {
+        this.resolutionCacheSize = resolutionCacheSize;
+    }
+
+    public Duration getResolutionCacheTtl() {
+        return resolutionCacheTtl;
+    }
+
+    public void setResolutionCacheTtl(Duration resolutionCacheTtl) {
+        this.resolutionCacheTtl = resolutionCacheTtl;
+    }
+
+    public boolean isWatch() {
+        return watch;
+    }
+
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
+    public Duration getWatchDebounce() {
+        return watchDebounce;
+    }
+
+    public void setWatchDebounce(Duration watchDebounce) {
+        this.watchDebounce = watchDebounce;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public long getKnownReferencesExpected() {
+        return knownReferencesExpected;
+    }
+
+    public void setKnownReferencesExpected(long knownReferencesExpected) {
+        this.knownReferencesExpected = knownReferencesExpected;
+    }
+
+    public double getKnownReferencesFpp() {
+        return knownReferencesFpp;
+    }
+
+    public void setKnownReferencesFpp(double knownReferencesFpp) {
+        this.knownReferencesFpp = knownReferencesFpp;
+    }
+
+    public String getKnownReferencesFile() {
+        return knownReferencesFile;
+    }
+
+    public void setKnownReferencesFile(String knownReferencesFile) {
+        this.knownReferencesFile = knownReferencesFile;
+    }
+
+    public boolean isParsedCache() {
+        return parsedCache;
+    }
+
+    public void setParsedCache(boolean parsedCache) {
+        this.parsedCache = parsedCache;
+    }
+
+    public int getPipelineResolveThreads() {
+        return pipelineResolveThreads;
+    }
+
+    public void setPipelineResolveThreads(int pipelineResolveThreads) {
+        this.pipelineResolveThreads = pipelineResolveThreads;
+    }
+
+    public int getPipelineChunkSize() {
+        return pipelineChunkSize;
+    }
+
+    public void setPipelineChunkSize(int pipelineChunkSize) {
+        this.pipelineChunkSize = pipelineChunkSize;
+    }
+
+    public int getPipelineQueueCapacity() {
+        return pipelineQueueCapacity;
+    }
+
+    public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+        this.pipelineQueueCapacity = pipelineQueueCapacity;
+    }
+
+    public int getRegistrationThreads() {
+        return registrationThreads;
+    }
+
+    public void setRegistrationThreads(int registrationThreads) {
+        this.registrationThreads = registrationThreads;
+    }
+
+    public boolean isValidateUploads() {
+        return validateUploads;
+    }
+
+    public void setValidateUploads(boolean validateUploads) {
+        this.validateUploads = validateUploads;
+    }
+
+    public int getHoldMatchingDays() {
+        return holdMatchingDays;
+    }
+
+    public void setHoldMatchingDays(int holdMatchingDays) {
+        this.holdMatchingDays = holdMatchingDays;
+    }
+
+    public int getLookupConcurrency() {
+        return lookupConcurrency;
+    }
+
+    public void setLookupConcurrency(int lookupConcurrency) {
+        this.lookupConcurrency = lookupConcurrency;
+    }
+
+    public int getLookupPrefetchRows() {
+        return lookupPrefetchRows;
+    }
+
+    public void setLookupPrefetchRows(int lookupPrefetchRows) {
+        this.lookupPrefetchRows = lookupPrefetchRows;
+    }
+
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    public void setPaths(List<String> paths) {
+        this.paths = paths;
+    }
+
+    public String getShardPattern() {
+        return shardPattern;
+    }
+
+    public void setShardPattern(String shardPattern) {
+        this.shardPattern = shardPattern;
+    }
+
+    public int getShardWorkers() {
+        return shardWorkers;
+    }
+
+    public void setShardWorkers(int shardWorkers) {
+        this.shardWorkers = shardWorkers;
+    }
+
+    public Duration getProcessingInterval() {
+        return processingInterval;
+    }
+
+    public void setProcessingInterval(Duration processingInterval) {
+        this.processingInterval = processingInterval;
+    }
+
+    public Duration getSlowRegistration() {
+        return slowRegistration;
+    }
+
+    public void setSlowRegistration(Duration slowRegistration) {
+        this.slowRegistration = slowRegistration;
+    }
+
+    public Duration getMaxProcessingBackoff() {
+        return maxProcessingBackoff;
+    }
+
+    public void setMaxProcessingBackoff(Duration maxProcessingBackoff) {
+        this.maxProcessingBackoff = maxProcessingBackoff;
+    }
 }
@@ -0,0 +1,130 @@
+package ru.vzotov.gpb;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Meters of the report ingestion.
+ * Without a meter registry in the context the meters are registered in an empty composite registry and record nothing.
+ */
+public class GazprombankMetrics {
+
+    public static final String REASON_SKIPPED_ACCOUNT = "skipped-account";
+
+    public static final String REASON_ALREADY_REGISTERED = "already-registered";
+
+    private final MeterRegistry registry;
+
+    private final Timer parse;
+
+    private final DistributionSummary parseThroughput;
+
+    private final AtomicLong backlog = new AtomicLong();
+
+    private final AtomicReference<Instant> oldestUnprocessed = new AtomicReference<>();
+
+    private final Map<String, Counter> rowsSkipped = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> rowsFailed = new ConcurrentHashMap<>();
+
+    public GazprombankMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.parse = Timer.builder("gpb.report.parse")
+                .description("Time spent parsing a report")
+                .register(registry);
+        this.parseThroughput = DistributionSummary.builder("gpb.report.parse.throughput")
+                .description("Rows parsed per second of parsing time of a report")
+                .baseUnit("rows/s")
+                .register(registry);
+        Gauge.builder("gpb.reports.backlog", backlog, AtomicLong::get)
+                .description("Number of unprocessed reports")
+                .register(registry);
+        TimeGauge.builder("gpb.reports.oldest.age", oldestUnprocessed, TimeUnit.SECONDS, GazprombankMetrics::age)
+                .description("Age of the oldest unprocessed report")
+                .register(registry);
+    }
+
+    public static GazprombankMetrics noop() {
+        return new GazprombankMetrics(new CompositeMeterRegistry());
+    }
+
+    public void reportParsed(long nanos, long rows) {
+        parse.record(nanos, TimeUnit.NANOSECONDS);
+        if (nanos > 0) {
+            parseThroughput.record(rows * 1e9 / nanos);
+        }
+    }
+
+    /**
+     * @return timer of lookups of the cards and accounts missing in the cache
+     */
+    public Timer lookup(String cache) {
+        return Timer.builder("gpb.resolution.lookup")
+                .description("Latency of card and account lookups")
+                .tag("cache", cache)
+                .register(registry);
+    }
+
+    public <T> void monitorCache(String cache, T obj, ToDoubleFunction<T> hits, ToDoubleFunction<T> misses) {
+        FunctionCounter.builder("gpb.resolution.cache.requests", obj, hits)
+                .tag("cache", cache).tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("gpb.resolution.cache.requests", obj, misses)
+                .tag("cache", cache).tag("result", "miss")
+                .register(registry);
+    }
+
+    /**
+     * @param call name of the accounting service method
+     */
+    public Timer registration(String call) {
+        return Timer.builder("gpb.registration")
+                .description("Latency of calls registering operations in the accounting")
+                .tag("call", call)
+                .register(registry);
+    }
+
+    public void rowSkipped(String reason) {
+        rowsSkipped(reason, 1);
+    }
+
+    public void rowsSkipped(String reason, long count) {
+        rowsSkipped.computeIfAbsent(reason, key -> counter("gpb.rows.skipped", key)).increment(count);
+    }
+
+    public void rowFailed(String reason) {
+        rowsFailed.computeIfAbsent(reason, key -> counter("gpb.rows.failed", key)).increment();
+    }
+
+    private Counter counter(String name, String reason) {
+        return Counter.builder(name).tag("reason", reason).register(registry);
+    }
+
+    /**
+     * @param oldest upload time of the oldest unprocessed report, {@code null} if there are no reports
+     */
+    public void backlog(int size, Instant oldest) {
+        backlog.set(size);
+        oldestUnprocessed.set(oldest);
+    }
+
+    private static double age(AtomicReference<Instant> oldest) {
+        final Instant instant = oldest.get();
+        return instant == null ? 0 : Math.max(0, Duration.between(instant, Instant.now()).toSeconds());
+    }
+}
@@ -1,13 +1,20 @@
 package ru.vzotov.gpb;
 
-import ru.vzotov.gpb.domain.model.GpbOperation;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import ru.vzotov.gpb.domain.model.GpbReportRepository;
 import ru.vzotov.gpb.infrastructure.fs.GpbReportRepositoryFiles;
+import ru.vzotov.gpb.infrastructure.fs.ShardedGpbReportRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import ru.vzotov.accounting.domain.model.AccountReportRepository;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class GazprombankModule {
@@ -20,11 +27,44 @@ public class GazprombankModule {
         return new GazprombankConfig();
     }
 
+    /**
+     * Metrics are recorded to the application meter registry if there is one
+     */
     @Bean
-    public AccountReportRepository<GpbOperation> accountReportRepositoryGpb(GazprombankConfig config) {
-        log.info("Create gazprombank report repository for path {}", config.getPath());
-        return new GpbReportRepositoryFiles(config.getPath());
+    public GazprombankMetrics gazprombankMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new GazprombankMetrics(meterRegistry.getIfAvailable(CompositeMeterRegistry::new));
     }
 
+    @Bean
+    public GpbReportRepository accountReportRepositoryGpb(GazprombankConfig config, GazprombankMetrics metrics) {
+        final boolean sharded = config.getShardPattern() != null
+                || (config.getPaths() != null && !config.getPaths().isEmpty());
+        if (!sharded) {
+            log.info("Create gazprombank report repository for path {}", config.getPath());
+            final GpbReportRepositoryFiles repository = reportDirectory(config, config.getPath(), config.getIndexFile());
+            repository.setMetrics(metrics);
+            return repository;
+        }
 
+        final List<String> roots = new ArrayList<>();
+        roots.add(config.getPath());
+        if (config.getPaths() != null) {
+            roots.addAll(config.getPaths());
+        }
+        log.info("Create gazprombank report repository for paths {} with shards {}", roots, config.getShardPattern());
+        final File indexed = new File(config.getPath());
+        final ShardedGpbReportRepository repository = new ShardedGpbReportRepository(roots, config.getShardPattern(),
+                directory -> reportDirectory(config, directory.getPath(),
+                        directory.equals(indexed) ? config.getIndexFile() : null));
+        repository.setMetrics(metrics);
+        return repository;
+    }
+
+    private static GpbReportRepositoryFiles reportDirectory(GazprombankConfig config, String path, String indexFile) {
+        final GpbReportRepositoryFiles repository = new GpbReportRepositoryFiles(path, indexFile);
+        repository.setReadMode(config.getReadMode());
+        repository.setParsedCache(config.isParsedCache());
+        repository.setValidateUploads(config.isValidateUploads());
+        return repository;
+    }
 }
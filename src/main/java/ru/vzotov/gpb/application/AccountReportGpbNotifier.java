@@ -8,8 +8,6 @@ import ru.vzotov.accounting.application.AccountReportService;
 @Component
 public class AccountReportGpbNotifier {
 
-    private static final long TEN_MINUTES = 10 * 60 * 1000;
-
     private final AccountReportService accountReportService;
 
     public AccountReportGpbNotifier(
@@ -17,7 +15,11 @@ public class AccountReportGpbNotifier {
         this.accountReportService = accountReportService;
     }
 
-    @Scheduled(initialDelay = 30 * 1000, fixedDelay = TEN_MINUTES)
+    /**
+     * Periodic scan of the reports directory. With watch mode enabled it only picks up reports missed by the watcher,
+     * so the interval can be increased with {@code gazprombank.reports.reconcile-interval}.
+     */
+    @Scheduled(initialDelay = 30 * 1000, fixedDelayString = "${gazprombank.reports.reconcile-interval:PT10M}")
     public void searchNewReports() {
         accountReportService.processNewReports();
     }
@@ -0,0 +1,288 @@
+package ru.vzotov.gpb.application;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import ru.vzotov.accounting.application.AccountReportService;
+import ru.vzotov.gpb.GazprombankConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Requests processing when a new report in a report directory has not grown for the debounce period
+ */
+@Component
+public class AccountReportGpbWatcher implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountReportGpbWatcher.class);
+
+    private static final String REPORT_EXT = ".csv";
+    private static final String REPORT_PROCESSED_EXT = "_processed.csv";
+
+    private static final long MAX_POLL_MILLIS = 1000;
+
+    private final AccountReportService accountReportService;
+
+    private final GazprombankConfig config;
+
+    private final int shardDepth;
+
+    /**
+     * Depth of the watched directories below their root
+     */
+    private final Map<Path, Integer> directories = new HashMap<>();
+
+    private final Map<Path, PendingReport> pending = new HashMap<>();
+
+    private final AtomicBoolean processingRequested = new AtomicBoolean();
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    private WatchService watchService;
+
+    private ExecutorService processing;
+
+    private static final class PendingReport {
+        private long size = -1;
+        private long changedAt;
+    }
+
+    public AccountReportGpbWatcher(
+            @Qualifier("AccountReportServiceGpb") AccountReportService accountReportService,
+            GazprombankConfig config) {
+        this.accountReportService = accountReportService;
+        this.config = config;
+        this.shardDepth = config.getShardPattern() == null ? 0 : config.getShardPattern().split("/").length;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!config.isWatch()) {
+            return;
+        }
+
+        open();
+
+        running = true;
+        thread = new Thread(this::watch, "gpb-report-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (thread != null) {
+            thread.join(MAX_POLL_MILLIS);
+        }
+        if (processing != null) {
+            processing.shutdown();
+        }
+    }
+
+    /**
+     * Registers the report directories, events are handled by {@link #handle(WatchKey)}
+     */
+    void open() throws IOException {
+        processing = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "gpb-report-watcher-processing");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path root : roots()) {
+            register(root, 0, false);
+            log.info("Watch directory {} for new reports", root.toAbsolutePath());
+        }
+    }
+
+    private List<Path> roots() {
+        final List<Path> roots = new ArrayList<>();
+        roots.add(new File(config.getPath()).toPath());
+        if (config.getPaths() != null) {
+            config.getPaths().stream().map(path -> new File(path).toPath()).forEach(roots::add);
+        }
+        return roots;
+    }
+
+    /**
+     * Watches the directory and its subdirectories down to the depth of the shards
+     *
+     * @param collect whether reports already present in the directories are new
+     */
+    private void register(Path directory, int depth, boolean collect) throws IOException {
+        directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        directories.put(directory, depth);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                if (depth < shardDepth && Files.isDirectory(child)) {
+                    register(child, depth + 1, collect);
+                } else if (collect && isReport(child.getFileName().toString())) {
+                    pending.computeIfAbsent(child, path -> new PendingReport());
+                }
+            }
+        }
+    }
+
+    private void watch() {
+        final long pollTimeout = Math.max(1, Math.min(MAX_POLL_MILLIS, config.getWatchDebounce().toMillis()));
+
+        while (running && !directories.isEmpty()) {
+            final WatchKey key;
+            try {
+                key = watchService.poll(pollTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            handle(key);
+        }
+        if (running) {
+            log.error("Report directories are no longer accessible, stop watching");
+        }
+    }
+
+    /**
+     * Handles the events of the key, if any, and requests processing when a new report is completely written
+     * or when events were lost
+     */
+    void handle(WatchKey key) {
+        boolean rescan = false;
+        if (key != null) {
+            final Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    rescan = true;
+                } else if (event.context() instanceof Path name) {
+                    final Path path = directory.resolve(name);
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                        registerSubdirectory(directory, path);
+                    } else if (isReport(name.toString())) {
+                        pending.computeIfAbsent(path, p -> new PendingReport());
+                    }
+                }
+            }
+            if (!key.reset()) {
+                log.warn("Directory {} is no longer accessible", directory);
+                directories.remove(directory);
+            }
+        }
+
+        if (rescan) {
+            log.warn("Events of the report directories are lost, scan them again");
+            for (Path root : roots()) {
+                try {
+                    register(root, 0, false);
+                } catch (IOException e) {
+                    log.warn("Unable to watch directory {}", root, e);
+                }
+            }
+        }
+
+        if (collectWrittenReports(config.getWatchDebounce().toNanos()) || rescan) {
+            requestProcessing();
+        }
+    }
+
+    /**
+     * Requests arriving while processing is queued are coalesced into it
+     */
+    private void requestProcessing() {
+        if (!processingRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            processing.execute(() -> {
+                processingRequested.set(false);
+                try {
+                    accountReportService.processNewReports();
+                } catch (RuntimeException e) {
+                    log.error("Processing of new reports failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            processingRequested.set(false);
+            log.warn("Watcher is stopped, processing request ignored");
+        }
+    }
+
+    private void registerSubdirectory(Path parent, Path directory) {
+        final Integer depth = directories.get(parent);
+        if (depth == null || depth >= shardDepth) {
+            return;
+        }
+        try {
+            // reports may be written before the directory is watched
+            register(directory, depth + 1, true);
+            log.info("Watch directory {} for new reports", directory.toAbsolutePath());
+        } catch (IOException e) {
+            log.warn("Unable to watch directory {}", directory, e);
+        }
+    }
+
+    /**
+     * @return true if at least one pending report is completely written
+     */
+    private boolean collectWrittenReports(long debounce) {
+        boolean written = false;
+        final long now = System.nanoTime();
+        for (Iterator<Map.Entry<Path, PendingReport>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<Path, PendingReport> entry = it.next();
+            final File file = entry.getKey().toFile();
+            if (!file.isFile()) {
+                it.remove();
+                continue;
+            }
+
+            final PendingReport report = entry.getValue();
+            final long size = file.length();
+            if (size != report.size) {
+                report.size = size;
+                report.changedAt = now;
+            } else if (now - report.changedAt >= debounce) {
+                log.info("New report {} of size {}", entry.getKey(), size);
+                it.remove();
+                written = true;
+            }
+        }
+        return written;
+    }
+
+    private static boolean isReport(String name) {
+        final String lowerCaseName = name.toLowerCase();
+        return lowerCaseName.endsWith(REPORT_EXT) && !lowerCaseName.endsWith(REPORT_PROCESSED_EXT);
+    }
+}
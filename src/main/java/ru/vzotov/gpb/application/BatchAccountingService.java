@@ -0,0 +1,21 @@
+package ru.vzotov.gpb.application;
+
+import ru.vzotov.accounting.application.AccountNotFoundException;
+import ru.vzotov.banking.domain.model.OperationId;
+
+import java.util.List;
+
+/**
+ * Optional extension of {@link ru.vzotov.accounting.application.AccountingService} that registers
+ * operations in chunks. When no implementation is available operations are registered one by one.
+ */
+public interface BatchAccountingService {
+
+    /**
+     * @param operations operations in the order they must be registered
+     * @return identifiers of registered operations in the same order
+     */
+    List<OperationId> registerOperations(List<OperationRegistration> operations) throws AccountNotFoundException;
+
+    void removeMatchingHoldOperations(List<OperationId> operationIds);
+}
@@ -0,0 +1,15 @@
+package ru.vzotov.gpb.application;
+
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.OperationId;
+import ru.vzotov.banking.domain.model.OperationType;
+import ru.vzotov.domain.model.Money;
+
+import java.time.LocalDate;
+
+public record HoldOperation(OperationId operationId,
+                            AccountNumber accountNumber,
+                            LocalDate date,
+                            OperationType type,
+                            Money amount) {
+}
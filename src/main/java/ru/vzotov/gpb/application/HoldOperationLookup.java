@@ -0,0 +1,22 @@
+package ru.vzotov.gpb.application;
+
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.OperationId;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Optional bulk access to hold operations. When an implementation is available holds of a report are loaded once,
+ * matched with the registered operations in memory and removed in bulk instead of a search per registered operation.
+ */
+public interface HoldOperationLookup {
+
+    /**
+     * @param accounts accounts to load the holds of
+     * @return hold operations of the accounts that are not removed yet
+     */
+    List<HoldOperation> findHoldOperations(Collection<AccountNumber> accounts);
+
+    void removeHoldOperations(Collection<OperationId> operationIds);
+}
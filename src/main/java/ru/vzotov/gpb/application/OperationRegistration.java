@@ -0,0 +1,16 @@
+package ru.vzotov.gpb.application;
+
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.OperationType;
+import ru.vzotov.banking.domain.model.TransactionReference;
+import ru.vzotov.domain.model.Money;
+
+import java.time.LocalDate;
+
+public record OperationRegistration(AccountNumber accountNumber,
+                                    LocalDate date,
+                                    TransactionReference transactionReference,
+                                    OperationType type,
+                                    Money amount,
+                                    String description) {
+}
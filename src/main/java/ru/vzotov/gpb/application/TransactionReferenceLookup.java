@@ -0,0 +1,19 @@
+package ru.vzotov.gpb.application;
+
+import ru.vzotov.banking.domain.model.TransactionReference;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Optional bulk check of operations already registered in the accounting.
+ * When an implementation is available operations of re-imported reports are not registered again.
+ */
+public interface TransactionReferenceLookup {
+
+    /**
+     * @param references references of operations to check
+     * @return references of the given ones that belong to registered operations
+     */
+    Set<TransactionReference> findExisting(Collection<TransactionReference> references);
+}
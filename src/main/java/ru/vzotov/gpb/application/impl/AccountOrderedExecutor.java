@@ -0,0 +1,56 @@
+package ru.vzotov.gpb.application.impl;
+
+import ru.vzotov.banking.domain.model.AccountNumber;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks sharing an account one after another in the order of submission, other tasks concurrently
+ */
+class AccountOrderedExecutor {
+
+    private final Executor executor;
+
+    private final CompletableFuture<?>[] lanes;
+
+    AccountOrderedExecutor(Executor executor, int lanes) {
+        this.executor = executor;
+        this.lanes = new CompletableFuture<?>[Math.max(1, lanes)];
+        Arrays.fill(this.lanes, CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * @return completion of the task
+     */
+    synchronized CompletableFuture<Void> submit(Collection<AccountNumber> accounts, Runnable task) {
+        final boolean[] used = new boolean[lanes.length];
+        for (AccountNumber account : accounts) {
+            used[lane(account)] = true;
+        }
+
+        int count = 0;
+        final CompletableFuture<?>[] previous = new CompletableFuture<?>[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            if (used[i]) {
+                previous[count++] = lanes[i];
+            }
+        }
+
+        final CompletableFuture<Void> result = CompletableFuture.allOf(Arrays.copyOf(previous, count))
+                .handle((ignored, failure) -> null)
+                .thenRunAsync(task, executor);
+        for (int i = 0; i < lanes.length; i++) {
+            if (used[i]) {
+                lanes[i] = result;
+            }
+        }
+        return result;
+    }
+
+    private int lane(AccountNumber account) {
+        return Math.floorMod(account.hashCode() * 0x9E3779B9, lanes.length);
+    }
+}
@@ -3,51 +3,56 @@ package ru.vzotov.gpb.application.impl;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import org.springframework.util.DigestUtils;
 import ru.vzotov.accounting.application.AccountNotFoundException;
 import ru.vzotov.accounting.application.AccountReportNotFoundException;
 import ru.vzotov.accounting.application.AccountReportService;
 import ru.vzotov.accounting.application.AccountingService;
-import ru.vzotov.accounting.domain.model.AccountReport;
 import ru.vzotov.accounting.domain.model.AccountReportId;
-import ru.vzotov.accounting.domain.model.AccountReportRepository;
 import ru.vzotov.accounting.domain.model.AccountRepository;
 import ru.vzotov.accounting.domain.model.CardRepository;
-import ru.vzotov.banking.domain.model.Account;
 import ru.vzotov.banking.domain.model.AccountNumber;
 import ru.vzotov.banking.domain.model.BankId;
-import ru.vzotov.banking.domain.model.Card;
-import ru.vzotov.banking.domain.model.OperationId;
-import ru.vzotov.banking.domain.model.OperationType;
-import ru.vzotov.banking.domain.model.TransactionReference;
-import ru.vzotov.domain.model.Money;
 import ru.vzotov.gpb.GazprombankConfig;
+import ru.vzotov.gpb.GazprombankMetrics;
+import ru.vzotov.gpb.application.BatchAccountingService;
+import ru.vzotov.gpb.application.HoldOperationLookup;
+import ru.vzotov.gpb.application.TransactionReferenceLookup;
 import ru.vzotov.gpb.domain.model.GpbOperation;
+import ru.vzotov.gpb.domain.model.GpbReportRepository;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Currency;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-
-import static ru.vzotov.banking.domain.model.OperationType.DEPOSIT;
-import static ru.vzotov.banking.domain.model.OperationType.WITHDRAW;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
 
 @Service
 @Qualifier("AccountReportServiceGpb")
-public class AccountReportServiceGpb implements AccountReportService {
+public class AccountReportServiceGpb implements AccountReportService, DisposableBean {
 
     private static final Logger log = LoggerFactory.getLogger(AccountReportServiceGpb.class);
 
-    private final AccountReportRepository<GpbOperation> accountReportRepository;
+    private static final int REGISTRATION_LANES = 64;
+
+    private final GpbReportRepository accountReportRepository;
 
     private final AccountingService accountingService;
 
@@ -57,8 +62,24 @@ public class AccountReportServiceGpb implements AccountReportService {
 
     private final GazprombankConfig gazprombankConfig;
 
+    private final GpbResolutionCache resolutionCache;
+
+    private BatchAccountingService batchAccountingService;
+
+    private GazprombankMetrics metrics = GazprombankMetrics.noop();
+
+    private KnownReferences knownReferences;
+
+    private HoldOperationLookup holdOperationLookup;
+
+    private final ConcurrentLookups concurrentLookups;
+
+    private final ProcessingScheduler processingScheduler;
+
+    private final Object processingLock = new Object();
+
     AccountReportServiceGpb(
-            @Autowired @Qualifier("accountReportRepositoryGpb") AccountReportRepository<GpbOperation> accountReportRepository
+            @Autowired @Qualifier("accountReportRepositoryGpb") GpbReportRepository accountReportRepository
             , @Autowired AccountingService accountingService
             , @Autowired AccountRepository accountRepository
             , @Autowired CardRepository cardRepository
@@ -69,6 +90,62 @@ public class AccountReportServiceGpb implements AccountReportService {
         this.accountRepository = accountRepository;
         this.cardRepository = cardRepository;
         this.gazprombankConfig = gazprombankConfig;
+        this.resolutionCache = new GpbResolutionCache(accountRepository, cardRepository,
+                gazprombankConfig.getResolutionCacheSize(), gazprombankConfig.getResolutionCacheTtl(), metrics);
+        this.concurrentLookups = gazprombankConfig.getLookupConcurrency() > 0
+                ? new ConcurrentLookups(gazprombankConfig.getLookupConcurrency()) : null;
+        this.processingScheduler = gazprombankConfig.getProcessingInterval() == null ? null
+                : new ProcessingScheduler(this::processNow, gazprombankConfig.getProcessingInterval(),
+                gazprombankConfig.getSlowRegistration(), gazprombankConfig.getMaxProcessingBackoff());
+        if (accountingService instanceof TransactionReferenceLookup lookup) {
+            setTransactionReferenceLookup(lookup);
+        }
+        if (accountingService instanceof HoldOperationLookup lookup) {
+            setHoldOperationLookup(lookup);
+        }
+    }
+
+    @Autowired(required = false)
+    public void setBatchAccountingService(BatchAccountingService batchAccountingService) {
+        this.batchAccountingService = batchAccountingService;
+    }
+
+    /**
+     * Enables the check of already registered operations before registration
+     */
+    @Autowired(required = false)
+    public void setTransactionReferenceLookup(TransactionReferenceLookup transactionReferenceLookup) {
+        final String file = gazprombankConfig.getKnownReferencesFile();
+        this.knownReferences = new KnownReferences(transactionReferenceLookup,
+                gazprombankConfig.getKnownReferencesExpected(), gazprombankConfig.getKnownReferencesFpp(),
+                file == null ? null : new File(file));
+    }
+
+    /**
+     * Enables matching of hold operations in memory, holds are removed in bulk
+     */
+    @Autowired(required = false)
+    public void setHoldOperationLookup(HoldOperationLookup holdOperationLookup) {
+        this.holdOperationLookup = holdOperationLookup;
+    }
+
+    @Autowired(required = false)
+    public void setMetrics(GazprombankMetrics metrics) {
+        this.metrics = Validate.notNull(metrics);
+        this.resolutionCache.bind(metrics);
+    }
+
+    /**
+     * Stops the processing scheduler and the lookup threads
+     */
+    @Override
+    public void destroy() {
+        if (processingScheduler != null) {
+            processingScheduler.close();
+        }
+        if (concurrentLookups != null) {
+            concurrentLookups.close();
+        }
     }
 
     public List<String> getSkipIds() {
@@ -84,125 +161,430 @@ public class AccountReportServiceGpb implements AccountReportService {
     public AccountReportId save(String name, InputStream content) throws IOException {
         Validate.notNull(name);
         Validate.notNull(content);
-        return accountReportRepository.save(name, content);
+        final AccountReportId reportId = accountReportRepository.save(name, content);
+        if (processingScheduler != null) {
+            processingScheduler.request();
+        }
+        return reportId;
     }
 
+    /**
+     * Processes the report on the calling thread, waits for the processing run in flight
+     */
     @Override
     public void processAccountReport(AccountReportId reportId) throws AccountReportNotFoundException, AccountNotFoundException {
         Validate.notNull(reportId);
+        synchronized (processingLock) {
+            processReport(reportId);
+        }
+    }
 
-        final AccountReport<GpbOperation> report = accountReportRepository.find(reportId);
-        if (report == null) {
-            throw new AccountReportNotFoundException();
+    private void processReport(AccountReportId reportId) throws AccountReportNotFoundException, AccountNotFoundException {
+
+        final GpbOperationResolver resolver = createResolver(reportId);
+        final ReportCheckpoint checkpoint = createCheckpoint(reportId);
+        final RegistrationBatch batch = createBatch(checkpoint);
+        boolean complete = false;
+        try {
+            final long started = System.nanoTime();
+            try (Stream<GpbOperation> operations = accountReportRepository.stream(reportId)) {
+                if (operations == null) {
+                    throw new AccountReportNotFoundException();
+                }
+                final long opened = System.nanoTime() - started;
+                final TimedIterator<GpbOperation> it = new TimedIterator<>(operations.iterator());
+                try {
+                    final ReportPipeline.Failure failure = gazprombankConfig.getPipelineResolveThreads() > 0
+                            ? processPipelined(reportId, it, checkpoint.start(), batch)
+                            : process(resolver, it, checkpoint.start(), batch::add);
+                    if (failure != null) {
+                        log.error(failure.cause().getMessage());
+                        metrics.rowFailed(failure.cause().reason());
+                        batch.flush();
+                        checkpoint.accept(failure.row());
+                        return;
+                    }
+                } finally {
+                    parsed(reportId, opened, it);
+                }
+            }
+            batch.flush();
+            batch.removeMatchedHolds();
+            complete = true;
+        } finally {
+            if (!complete) {
+                checkpoint.save();
+            }
+            saveKnownReferences();
         }
 
-        final Set<String> skipAccounts = new HashSet<>(gazprombankConfig.getSkip() == null ? Collections.emptyList() : gazprombankConfig.getSkip());
-        log.info("Process report {} skipping accounts {}", reportId, skipAccounts);
+        accountReportRepository.markProcessed(reportId);
+    }
+
+    private interface OperationSink {
+        void accept(ResolvedOperation operation) throws AccountNotFoundException;
+    }
+
+    /**
+     * Resolves rows in windows, cards and accounts of a window are looked up concurrently before its rows
+     * are resolved when concurrent lookups are enabled.
+     */
+    private ReportPipeline.Failure process(GpbOperationResolver resolver, Iterator<GpbOperation> rows, long start,
+                                           OperationSink sink) throws AccountNotFoundException {
+        final int windowSize = concurrentLookups == null ? 1 : Math.max(1, gazprombankConfig.getLookupPrefetchRows());
+        final List<GpbOperation> window = new ArrayList<>(Math.min(windowSize, 1024));
+        long first = start;
+        for (long row = 0; rows.hasNext(); row++) {
+            final GpbOperation next = rows.next();
+            if (row < start) {
+                continue;
+            }
+            window.add(next);
+            if (window.size() == windowSize || !rows.hasNext()) {
+                final ReportPipeline.Failure failure = process(resolver, window, first, sink);
+                if (failure != null) {
+                    return failure;
+                }
+                window.clear();
+                first = row + 1;
+            }
+        }
+        return null;
+    }
+
+    private ReportPipeline.Failure process(GpbOperationResolver resolver, List<GpbOperation> window, long first,
+                                           OperationSink sink) throws AccountNotFoundException {
+        if (concurrentLookups != null) {
+            resolver.prefetch(window, concurrentLookups);
+        }
+        for (int i = 0; i < window.size(); i++) {
+            final ResolvedOperation operation;
+            try {
+                operation = resolver.resolve(window.get(i), first + i);
+            } catch (OperationResolutionException e) {
+                return new ReportPipeline.Failure(first + i, e);
+            }
+            if (operation != null) {
+                sink.accept(operation);
+            }
+        }
+        return null;
+    }
 
-        // Index of cards by their card number in report
-        final Map<String, Card> cards = new HashMap<>();
-        final Map<String, Account> accounts = new HashMap<>();
+    private ReportPipeline.Failure processPipelined(AccountReportId reportId, Iterator<GpbOperation> rows, long start,
+                                                    RegistrationBatch batch) throws AccountNotFoundException {
+        final Set<String> skipAccounts = skipAccounts();
+        log.info("Process report {} in pipeline with {} resolve threads", reportId, gazprombankConfig.getPipelineResolveThreads());
+        try (ReportPipeline pipeline = new ReportPipeline(
+                () -> new GpbOperationResolver(resolutionCache, skipAccounts, metrics),
+                concurrentLookups,
+                gazprombankConfig.getPipelineResolveThreads(),
+                gazprombankConfig.getPipelineChunkSize(),
+                gazprombankConfig.getPipelineQueueCapacity())) {
+            return pipeline.run(rows, start, batch);
+        }
+    }
 
-        for (GpbOperation row : report.operations()) {
-            final OperationType type = row.operationAmount() < 0d ? WITHDRAW : DEPOSIT;
+    /**
+     * Drops cached cards and accounts, so that changes made in the accounting are seen before the entries expire.
+     */
+    public void invalidateResolutionCache() {
+        resolutionCache.invalidateAll();
+    }
 
-            Card card = null;
-            if (row.cardNumber() != null && !row.cardNumber().isEmpty()) {
-                card = cards.get(row.cardNumber());
-                if (card == null) {
-                    List<Card> cardList = cardRepository.findByMask(row.cardNumber())
-                            .stream()
-                            .filter(c -> BankId.GAZPROMBANK.equals(c.issuer()))
-                            .toList();
+    @Override
+    public void processNewReports() {
+        if (processingScheduler != null) {
+            processingScheduler.request();
+        } else {
+            processNow();
+        }
+    }
 
-                    if (cardList.isEmpty()) {
-                        log.error("Unable to find card by mask {}", row.cardNumber());
-                        return;
-                    } else if (cardList.size() == 1) {
-                        card = cardList.get(0);
-                        cards.put(row.cardNumber(), card);
-                    } else {
-                        log.error("Multiple cards found by mask {}", row.cardNumber());
-                        return;
-                    }
+    /**
+     * Processes new reports on the calling thread, a run waits for the one in flight
+     */
+    private void processNow() {
+        synchronized (processingLock) {
+            final List<String> shards = accountReportRepository.shards();
+            final int shardWorkers = Math.min(gazprombankConfig.getShardWorkers(), shards.size());
+            if (shardWorkers > 1) {
+                processShards(shards, shardWorkers);
+            } else {
+                processReports(accountReportRepository.findUnprocessed());
+            }
+        }
+    }
+
+    /**
+     * Scans the shards concurrently and processes their reports as a single list in the order of the shards
+     */
+    private void processShards(List<String> shards, int shardWorkers) {
+        final ExecutorService executor = Executors.newFixedThreadPool(shardWorkers, Threads.daemon("gpb-shard-"));
+        final List<AccountReportId> reports = new ArrayList<>();
+        try {
+            final List<Future<List<AccountReportId>>> scans = new ArrayList<>(shards.size());
+            for (String shard : shards) {
+                scans.add(executor.submit(() -> accountReportRepository.findUnprocessed(shard)));
+            }
+            for (int i = 0; i < scans.size(); i++) {
+                try {
+                    reports.addAll(scans.get(i).get());
+                } catch (ExecutionException e) {
+                    log.error("Scan of reports of shard {} failed", shards.get(i), e.getCause());
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
 
-            final Currency currency = Currency.getInstance(row.operationCurrency());
-            final Money amount = new Money(Math.abs(row.operationAmount()), currency);
+        log.info("Found {} unprocessed reports in {} shards", reports.size(), shards.size());
+        if (!reports.isEmpty()) {
+            processConcurrently(reports, Math.max(1, gazprombankConfig.getParallelism()) * shardWorkers);
+            logResolutionCaches();
+        }
+    }
 
-            if (skipAccounts.contains(row.accountNumber())) {
-                log.warn("Skip operation {} for accountId {}", amount, row.accountNumber());
-                continue;
+    private void processReports(List<AccountReportId> reports) {
+        log.info("Found {} unprocessed reports", reports.size());
+
+        final int parallelism = gazprombankConfig.getParallelism();
+        if (parallelism > 1 && reports.size() > 1) {
+            processConcurrently(reports, parallelism);
+        } else {
+            for (AccountReportId reportId : reports) {
+                log.info("Start processing of report {}", reportId);
+                try {
+                    processReport(reportId);
+
+                    log.info("Processing of report {} finished", reportId);
+                } catch (AccountReportNotFoundException | AccountNotFoundException e) {
+                    log.warn("Processing failed for report {}", reportId);
+                }
             }
+        }
+
+        if (!reports.isEmpty()) {
+            logResolutionCaches();
+        }
+    }
 
-            final Account account;
-            if (card == null) {
-                account = accounts.computeIfAbsent(row.accountNumber(),
-                        number -> accountRepository.find(new AccountNumber(row.accountNumber())));
-                if (!(account != null && BankId.GAZPROMBANK.equals(account.bankId()) &&
-                        (account.currency() == null || currency.equals(account.currency())))) {
-                    log.error("Unable to find account for gazprombank, alias {}, currency {}", row.accountNumber(), currency);
+    private void logResolutionCaches() {
+        for (ResolutionCache<?, ?> cache : resolutionCache.caches()) {
+            log.info("Resolution cache {}: size {}, hits {}, misses {}",
+                    cache.name(), cache.size(), cache.hits(), cache.misses());
+        }
+    }
+
+    /**
+     * Resolves up to {@code parallelism} reports at once and registers them in the order of {@code reports}.
+     * At most twice registrationThreads resolved reports wait for registration
+     */
+    private void processConcurrently(List<AccountReportId> reports, int parallelism) {
+        log.info("Process {} reports with parallelism {}", reports.size(), parallelism);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, Threads.daemon("gpb-report-"));
+        final int registrationThreads = Math.max(1, gazprombankConfig.getRegistrationThreads());
+        final ExecutorService registrationExecutor = registrationThreads > 1
+                ? Executors.newFixedThreadPool(registrationThreads, Threads.daemon("gpb-register-")) : null;
+        final AccountOrderedExecutor registration = registrationExecutor == null
+                ? null : new AccountOrderedExecutor(registrationExecutor, REGISTRATION_LANES);
+        final Deque<CompletableFuture<Void>> registering = new ArrayDeque<>();
+        record Pending(AccountReportId reportId, Future<ResolvedReport> result) {
+        }
+        try {
+            final Deque<Pending> pending = new ArrayDeque<>();
+            final Iterator<AccountReportId> next = reports.iterator();
+            while (next.hasNext() || !pending.isEmpty()) {
+                while (next.hasNext() && pending.size() < parallelism) {
+                    final AccountReportId reportId = next.next();
+                    log.info("Start processing of report {}", reportId);
+                    pending.add(new Pending(reportId, executor.submit(() -> resolveReport(reportId))));
+                }
+
+                final Pending head = pending.remove();
+                final ResolvedReport report;
+                try {
+                    report = head.result().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.warn("Processing of reports interrupted");
                     return;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof AccountReportNotFoundException) {
+                        log.warn("Processing failed for report {}", head.reportId());
+                        continue;
+                    }
+                    throw Threads.rethrow(e);
                 }
-            } else {
-                account = accountRepository.findAccountOfCard(card.cardNumber(), row.operationDate().toLocalDate());
-                if (account == null) {
-                    log.error("Unable to find account for card {} and date {}", card.cardNumber(), row.operationDate());
+
+                if (registration == null) {
+                    registerReport(report);
+                } else {
+                    while (registering.size() >= registrationThreads * 2) {
+                        if (!awaitRegistration(registering.remove())) {
+                            return;
+                        }
+                    }
+                    registering.add(registration.submit(report.accounts(), () -> registerReport(report)));
+                }
+            }
+            while (!registering.isEmpty()) {
+                if (!awaitRegistration(registering.remove())) {
                     return;
                 }
             }
+        } finally {
+            executor.shutdownNow();
+            if (registrationExecutor != null) {
+                registrationExecutor.shutdownNow();
+            }
+        }
+    }
 
-            final AccountNumber accountNumber = account.accountNumber();
-
-            // Пропускаем записи о блокировании средств на счете.
-            // Это незавершенные операции, нельзя их учитывать как полноценные операции
-            // Для Газпромбанка работать не будет, т.к. у них проблемы в API по учету заблокированных средств
-            if (row.hold()) {
-                accountingService.registerHoldOperation(
-                        accountNumber,
-                        row.operationDate().toLocalDate(),
-                        type,
-                        amount,
-                        row.description()
-                );
-            } else {
-                final String transactionId = DigestUtils.md5DigestAsHex(
-                        (row.operationDate().toString() + "_" + accountNumber.number() + "_" + row.operationAmount().toString() + "_" + row.description())
-                                .getBytes(StandardCharsets.UTF_8)
-                );
+    private void registerReport(ResolvedReport report) {
+        try {
+            register(report);
 
-                OperationId operationId = accountingService.registerOperation(
-                        accountNumber,
-                        row.operationDate().toLocalDate(),
-                        new TransactionReference(transactionId),
-                        type,
-                        amount,
-                        row.description()
-                );
+            log.info("Processing of report {} finished", report.reportId());
+        } catch (AccountNotFoundException e) {
+            log.warn("Processing failed for report {}", report.reportId());
+        }
+    }
 
-                accountingService.removeMatchingHoldOperations(operationId);
-            }
+    /**
+     * @return {@code false} if the thread is interrupted
+     */
+    private static boolean awaitRegistration(Future<Void> registration) {
+        try {
+            registration.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Processing of reports interrupted");
+            return false;
+        } catch (ExecutionException e) {
+            throw Threads.rethrow(e);
         }
+    }
 
-        accountReportRepository.markProcessed(reportId);
+    private Set<String> skipAccounts() {
+        return new HashSet<>(gazprombankConfig.getSkip() == null ? Collections.emptyList() : gazprombankConfig.getSkip());
     }
 
-    @Override
-    public void processNewReports() {
-        List<AccountReportId> reports = accountReportRepository.findUnprocessed();
+    private GpbOperationResolver createResolver(AccountReportId reportId) {
+        final Set<String> skipAccounts = skipAccounts();
+        log.info("Process report {} skipping accounts {}", reportId, skipAccounts);
+        return new GpbOperationResolver(resolutionCache, skipAccounts, metrics);
+    }
 
-        log.info("Found {} unprocessed reports", reports.size());
+    ResolvedReport resolveReport(AccountReportId reportId) throws AccountReportNotFoundException {
+        Validate.notNull(reportId);
 
-        for (AccountReportId reportId : reports) {
-            log.info("Start processing of report {}", reportId);
+        final GpbOperationResolver resolver = createResolver(reportId);
+        final long start = createCheckpoint(reportId).start();
+        final List<ResolvedOperation> resolved = new ArrayList<>();
+        final long started = System.nanoTime();
+        try (Stream<GpbOperation> operations = accountReportRepository.stream(reportId)) {
+            if (operations == null) {
+                throw new AccountReportNotFoundException();
+            }
+            final long opened = System.nanoTime() - started;
+            final TimedIterator<GpbOperation> it = new TimedIterator<>(operations.iterator());
             try {
-                processAccountReport(reportId);
+                final ReportPipeline.Failure failure = process(resolver, it, start, resolved::add);
+                if (failure != null) {
+                    log.error(failure.cause().getMessage());
+                    metrics.rowFailed(failure.cause().reason());
+                    return new ResolvedReport(reportId, resolved, failure.row(), false);
+                }
+            } catch (AccountNotFoundException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                parsed(reportId, opened, it);
+            }
+            return new ResolvedReport(reportId, resolved, it.count(), true);
+        }
+    }
+
+    /**
+     * @param opened time spent opening the report, it includes the whole parsing for reports read at once
+     */
+    private void parsed(AccountReportId reportId, long opened, TimedIterator<GpbOperation> rows) {
+        final long nanos = opened + rows.nanos();
+        metrics.reportParsed(nanos, rows.count());
+        log.info("Parsed {} rows of report {} in {} ms", rows.count(), reportId, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
 
-                log.info("Processing of report {} finished", reportId);
-            } catch (AccountReportNotFoundException | AccountNotFoundException e) {
-                log.warn("Processing failed for report {}", reportId);
+    void register(ResolvedReport report) throws AccountNotFoundException {
+        final ReportCheckpoint checkpoint = new ReportCheckpoint(accountReportRepository, report.reportId(),
+                gazprombankConfig.getCheckpointInterval());
+        final RegistrationBatch batch = createBatch(checkpoint, report.accounts());
+        boolean registered = false;
+        try {
+            for (ResolvedOperation operation : report.operations()) {
+                batch.add(operation);
+            }
+            batch.flush();
+            batch.removeMatchedHolds();
+            registered = true;
+        } finally {
+            if (!registered || !report.complete()) {
+                if (registered) {
+                    checkpoint.accept(report.rows());
+                }
+                checkpoint.save();
             }
+            saveKnownReferences();
+        }
+        if (report.complete()) {
+            accountReportRepository.markProcessed(report.reportId());
+        }
+    }
+
+    private ReportCheckpoint createCheckpoint(AccountReportId reportId) {
+        final ReportCheckpoint checkpoint = new ReportCheckpoint(accountReportRepository, reportId,
+                gazprombankConfig.getCheckpointInterval());
+        if (checkpoint.start() > 0) {
+            log.info("Resume processing of report {} after {} registered rows", reportId, checkpoint.start());
+        }
+        return checkpoint;
+    }
+
+    private void saveKnownReferences() {
+        if (knownReferences != null) {
+            knownReferences.save();
+        }
+    }
+
+    /**
+     * Accounts of a streamed report are not known in advance, holds are loaded chunk by chunk
+     */
+    private RegistrationBatch createBatch(ReportCheckpoint checkpoint) {
+        return createBatch(checkpoint, Set.of());
+    }
+
+    /**
+     * @param accounts accounts of the report known in advance, their holds are loaded at once
+     */
+    private RegistrationBatch createBatch(ReportCheckpoint checkpoint, Set<AccountNumber> accounts) {
+        BatchAccountingService batch = batchAccountingService;
+        if (batch == null && accountingService instanceof BatchAccountingService batchSupport) {
+            batch = batchSupport;
+        }
+        HoldMatchingIndex holds = null;
+        if (holdOperationLookup != null) {
+            holds = new HoldMatchingIndex(holdOperationLookup, gazprombankConfig.getHoldMatchingDays());
+            holds.load(accounts);
         }
+        final LongConsumer latency = processingScheduler != null ? processingScheduler::registered : nanos -> {
+        };
+        final RegistrationBatch registrationBatch = new RegistrationBatch(accountingService, batch,
+                gazprombankConfig.getBatchSize(), metrics, checkpoint, knownReferences, holds, latency);
+        checkpoint.beforeSave(registrationBatch::removeMatchedHolds);
+        return registrationBatch;
     }
 }
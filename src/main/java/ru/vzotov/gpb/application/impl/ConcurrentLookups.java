@@ -0,0 +1,104 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Runs up to {@code concurrency} card and account lookups at once, on virtual threads where available
+ */
+class ConcurrentLookups {
+
+    private static final Logger log = LoggerFactory.getLogger(ConcurrentLookups.class);
+
+    private final ExecutorService executor;
+
+    private final boolean virtual;
+
+    private final Semaphore permits;
+
+    ConcurrentLookups(int concurrency) {
+        final ExecutorService virtualThreads = virtualThreadExecutor();
+        this.virtual = virtualThreads != null;
+        this.executor = virtual ? virtualThreads : Executors.newFixedThreadPool(concurrency, Threads.daemon("gpb-lookup-"));
+        this.permits = new Semaphore(concurrency);
+        log.info("Run up to {} lookups concurrently on {} threads", concurrency, virtual ? "virtual" : "platform");
+    }
+
+    /**
+     * @return executor starting a virtual thread per task or {@code null} if virtual threads are not available
+     */
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            // preview feature of Java 19 and 20 that is not enabled
+            log.debug("Virtual threads are not available", e);
+            return null;
+        }
+    }
+
+    boolean virtual() {
+        return virtual;
+    }
+
+    /**
+     * @return results of the lookup by key, {@code null} results included
+     */
+    <K, V> Map<K, V> fetchAll(Collection<K> keys, Function<? super K, ? extends V> lookup) {
+        final Map<K, V> results = new HashMap<>();
+        if (keys.size() <= 1) {
+            for (K key : keys) {
+                results.put(key, lookup.apply(key));
+            }
+            return results;
+        }
+
+        final List<K> submitted = new ArrayList<>(keys.size());
+        final List<Future<V>> futures = new ArrayList<>(keys.size());
+        try {
+            for (K key : keys) {
+                submitted.add(key);
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return lookup.apply(key);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                results.put(submitted.get(i), futures.get(i).get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Lookups interrupted", e);
+        } catch (ExecutionException e) {
+            throw Threads.rethrow(e);
+        } finally {
+            for (Future<V> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+}
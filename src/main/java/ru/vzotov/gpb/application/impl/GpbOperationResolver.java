@@ -0,0 +1,184 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.banking.domain.model.Account;
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.BankId;
+import ru.vzotov.banking.domain.model.Card;
+import ru.vzotov.banking.domain.model.CardNumber;
+import ru.vzotov.banking.domain.model.OperationType;
+import ru.vzotov.banking.domain.model.TransactionReference;
+import ru.vzotov.domain.model.Money;
+import ru.vzotov.gpb.GazprombankMetrics;
+import ru.vzotov.gpb.domain.model.GpbOperation;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ru.vzotov.banking.domain.model.OperationType.DEPOSIT;
+import static ru.vzotov.banking.domain.model.OperationType.WITHDRAW;
+
+/**
+ * Binds operations of a single report to accounts. Not thread-safe, one instance is used per report.
+ */
+class GpbOperationResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(GpbOperationResolver.class);
+
+    private static final Currency RUR = Currency.getInstance("RUR");
+
+    private final GpbResolutionCache lookups;
+
+    private final Set<String> skipAccounts;
+
+    private final GazprombankMetrics metrics;
+
+    // Index of cards by their card number in report
+    private final Map<String, Card> cards = new HashMap<>();
+
+    private final Map<String, Account> accounts = new HashMap<>();
+
+    // Accounts of cards prefetched for the rows being resolved
+    private final Map<CardOnDate, Account> cardAccounts = new HashMap<>();
+
+    private record CardOnDate(CardNumber cardNumber, LocalDate date) {
+    }
+
+    GpbOperationResolver(GpbResolutionCache lookups, Set<String> skipAccounts, GazprombankMetrics metrics) {
+        this.lookups = lookups;
+        this.skipAccounts = skipAccounts;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Looks up cards and accounts of the rows concurrently, so that {@link #resolve} finds them in memory.
+     * Accounts of cards are looked up once their cards are known. Rows that can not be resolved are left
+     * to {@link #resolve}, which reports them.
+     */
+    void prefetch(Collection<GpbOperation> rows, ConcurrentLookups concurrentLookups) {
+        final Set<String> masks = new HashSet<>();
+        final Set<String> accountNumbers = new HashSet<>();
+        for (GpbOperation row : rows) {
+            if (row.cardNumber() != null && !row.cardNumber().isEmpty()) {
+                if (!cards.containsKey(row.cardNumber())) {
+                    masks.add(row.cardNumber());
+                }
+            } else if (!skipAccounts.contains(row.accountNumber()) && !accounts.containsKey(row.accountNumber())) {
+                accountNumbers.add(row.accountNumber());
+            }
+        }
+        concurrentLookups.fetchAll(masks, lookups::findCardsByMask).forEach((mask, cardList) -> {
+            if (cardList.size() == 1) {
+                cards.put(mask, cardList.get(0));
+            }
+        });
+        accounts.putAll(concurrentLookups.fetchAll(accountNumbers,
+                number -> lookups.findAccount(new AccountNumber(number))));
+
+        cardAccounts.clear();
+        final Set<CardOnDate> cardDates = new HashSet<>();
+        for (GpbOperation row : rows) {
+            final Card card = row.cardNumber() == null ? null : cards.get(row.cardNumber());
+            if (card != null && !skipAccounts.contains(row.accountNumber())) {
+                cardDates.add(new CardOnDate(card.cardNumber(), row.operationDate().toLocalDate()));
+            }
+        }
+        cardAccounts.putAll(concurrentLookups.fetchAll(cardDates,
+                key -> lookups.findAccountOfCard(key.cardNumber(), key.date())));
+    }
+
+    /**
+     * @param row       operation of the report
+     * @param rowNumber zero-based number of the row in the report
+     * @return resolved operation or {@code null} if the operation must be skipped
+     * @throws OperationResolutionException if the operation can not be bound to an account
+     */
+    ResolvedOperation resolve(GpbOperation row, long rowNumber) throws OperationResolutionException {
+        final OperationType type = row.operationAmountMinor() < 0 ? WITHDRAW : DEPOSIT;
+
+        Card card = null;
+        if (row.cardNumber() != null && !row.cardNumber().isEmpty()) {
+            card = cards.get(row.cardNumber());
+            if (card == null) {
+                List<Card> cardList = lookups.findCardsByMask(row.cardNumber());
+
+                if (cardList.isEmpty()) {
+                    throw new OperationResolutionException("card-not-found", "Unable to find card by mask " + row.cardNumber());
+                } else if (cardList.size() == 1) {
+                    card = cardList.get(0);
+                    cards.put(row.cardNumber(), card);
+                } else {
+                    throw new OperationResolutionException("multiple-cards", "Multiple cards found by mask " + row.cardNumber());
+                }
+            }
+        }
+
+        final Currency currency = Currency.getInstance(row.operationCurrency());
+        final Money amount = money(Math.abs(row.operationAmountMinor()), currency);
+
+        if (skipAccounts.contains(row.accountNumber())) {
+            log.warn("Skip operation {} for accountId {}", amount, row.accountNumber());
+            metrics.rowSkipped(GazprombankMetrics.REASON_SKIPPED_ACCOUNT);
+            return null;
+        }
+
+        final Account account;
+        if (card == null) {
+            account = accounts.computeIfAbsent(row.accountNumber(),
+                    number -> lookups.findAccount(new AccountNumber(row.accountNumber())));
+            if (!(account != null && BankId.GAZPROMBANK.equals(account.bankId()) &&
+                    (account.currency() == null || currency.equals(account.currency())))) {
+                throw new OperationResolutionException("account-not-found", "Unable to find account for gazprombank, alias "
+                        + row.accountNumber() + ", currency " + currency);
+            }
+        } else {
+            final LocalDate date = row.operationDate().toLocalDate();
+            final Account prefetched = cardAccounts.get(new CardOnDate(card.cardNumber(), date));
+            account = prefetched != null ? prefetched : lookups.findAccountOfCard(card.cardNumber(), date);
+            if (account == null) {
+                throw new OperationResolutionException("card-account-not-found", "Unable to find account for card "
+                        + card.cardNumber() + " and date " + row.operationDate());
+            }
+        }
+
+        final AccountNumber accountNumber = account.accountNumber();
+
+        final TransactionReference transactionReference;
+        if (row.hold()) {
+            transactionReference = null;
+        } else {
+            transactionReference = new TransactionReference(transactionId(row, accountNumber));
+        }
+
+        return new ResolvedOperation(
+                accountNumber,
+                row.operationDate().toLocalDate(),
+                transactionReference,
+                type,
+                amount,
+                row.description(),
+                row.hold(),
+                rowNumber
+        );
+    }
+
+    /**
+     * @return identifier of the operation that stays the same when the report is processed again
+     */
+    static String transactionId(GpbOperation row, AccountNumber accountNumber) {
+        return TransactionFingerprint.transactionId(
+                row.operationDate(), accountNumber.number(), row.operationAmountMinor(), row.negativeZero(),
+                row.description());
+    }
+
+    private static Money money(long minor, Currency currency) {
+        return RUR.equals(currency) ? Money.kopecks(minor) : new Money(minor / 100d, currency);
+    }
+}
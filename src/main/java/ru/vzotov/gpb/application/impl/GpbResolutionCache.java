@@ -0,0 +1,94 @@
+package ru.vzotov.gpb.application.impl;
+
+import io.micrometer.core.instrument.Timer;
+import ru.vzotov.accounting.domain.model.AccountRepository;
+import ru.vzotov.accounting.domain.model.CardRepository;
+import ru.vzotov.banking.domain.model.Account;
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.BankId;
+import ru.vzotov.banking.domain.model.Card;
+import ru.vzotov.banking.domain.model.CardNumber;
+import ru.vzotov.gpb.GazprombankMetrics;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Card and account lookups shared by all reports. Empty and missing results are not cached,
+ * so cards and accounts created after a failed report become visible on the next run.
+ */
+class GpbResolutionCache {
+
+    private final ResolutionCache<String, List<Card>> cardsByMask;
+
+    private final ResolutionCache<AccountNumber, Account> accounts;
+
+    private final ResolutionCache<CardOnDate, Account> accountsOfCards;
+
+    private final AccountRepository accountRepository;
+
+    private final CardRepository cardRepository;
+
+    private volatile Timer cardsLookup;
+
+    private volatile Timer accountsLookup;
+
+    private volatile Timer accountsOfCardsLookup;
+
+    private record CardOnDate(CardNumber cardNumber, LocalDate date) {
+    }
+
+    GpbResolutionCache(AccountRepository accountRepository, CardRepository cardRepository, int maximumSize, Duration ttl,
+                       GazprombankMetrics metrics) {
+        this.accountRepository = accountRepository;
+        this.cardRepository = cardRepository;
+        this.cardsByMask = new ResolutionCache<>("cards", maximumSize, ttl);
+        this.accounts = new ResolutionCache<>("accounts", maximumSize, ttl);
+        this.accountsOfCards = new ResolutionCache<>("accountsOfCards", maximumSize, ttl);
+        bind(metrics);
+    }
+
+    /**
+     * Starts recording of lookup latencies and cache hits into the metrics
+     */
+    void bind(GazprombankMetrics metrics) {
+        for (ResolutionCache<?, ?> cache : caches()) {
+            metrics.monitorCache(cache.name(), cache, ResolutionCache::hits, ResolutionCache::misses);
+        }
+        this.cardsLookup = metrics.lookup(cardsByMask.name());
+        this.accountsLookup = metrics.lookup(accounts.name());
+        this.accountsOfCardsLookup = metrics.lookup(accountsOfCards.name());
+    }
+
+    /**
+     * @return gazprombank cards matching the mask
+     */
+    List<Card> findCardsByMask(String mask) {
+        final List<Card> cards = cardsByMask.get(mask, m -> cardsLookup.record(() -> {
+            final List<Card> found = cardRepository.findByMask(m)
+                    .stream()
+                    .filter(c -> BankId.GAZPROMBANK.equals(c.issuer()))
+                    .toList();
+            return found.isEmpty() ? null : found;
+        }));
+        return cards == null ? List.of() : cards;
+    }
+
+    Account findAccount(AccountNumber accountNumber) {
+        return accounts.get(accountNumber, number -> accountsLookup.record(() -> accountRepository.find(number)));
+    }
+
+    Account findAccountOfCard(CardNumber cardNumber, LocalDate date) {
+        return accountsOfCards.get(new CardOnDate(cardNumber, date),
+                key -> accountsOfCardsLookup.record(() -> accountRepository.findAccountOfCard(key.cardNumber(), key.date())));
+    }
+
+    List<ResolutionCache<?, ?>> caches() {
+        return List.of(cardsByMask, accounts, accountsOfCards);
+    }
+
+    void invalidateAll() {
+        caches().forEach(ResolutionCache::invalidateAll);
+    }
+}
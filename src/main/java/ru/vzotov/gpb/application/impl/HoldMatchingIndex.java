@@ -0,0 +1,109 @@
+package ru.vzotov.gpb.application.impl;
+
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.OperationId;
+import ru.vzotov.banking.domain.model.OperationType;
+import ru.vzotov.domain.model.Money;
+import ru.vzotov.gpb.application.HoldOperation;
+import ru.vzotov.gpb.application.HoldOperationLookup;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Hold operations of the accounts of a report, indexed by account, type and amount. Not thread-safe
+ */
+class HoldMatchingIndex {
+
+    private record Key(AccountNumber accountNumber, OperationType type, Money amount) {
+    }
+
+    private final HoldOperationLookup lookup;
+
+    private final int windowDays;
+
+    private final Set<AccountNumber> loaded = new HashSet<>();
+
+    private final Map<Key, NavigableMap<LocalDate, ArrayDeque<OperationId>>> holds = new HashMap<>();
+
+    private final List<OperationId> matched = new ArrayList<>();
+
+    HoldMatchingIndex(HoldOperationLookup lookup, int windowDays) {
+        this.lookup = lookup;
+        this.windowDays = Math.max(0, windowDays);
+    }
+
+    void load(AccountNumber account) {
+        if (!loaded.contains(account)) {
+            load(List.of(account));
+        }
+    }
+
+    /**
+     * Loads holds of the accounts that are not loaded yet with a single lookup
+     */
+    void load(Collection<AccountNumber> accounts) {
+        final List<AccountNumber> missing = new ArrayList<>();
+        for (AccountNumber account : accounts) {
+            if (loaded.add(account)) {
+                missing.add(account);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (HoldOperation hold : lookup.findHoldOperations(missing)) {
+                add(hold);
+            }
+        }
+    }
+
+    /**
+     * Adds a hold registered while the report is processed
+     */
+    void add(HoldOperation hold) {
+        holds.computeIfAbsent(new Key(hold.accountNumber(), hold.type(), hold.amount()), key -> new TreeMap<>())
+                .computeIfAbsent(hold.date(), date -> new ArrayDeque<>())
+                .add(hold.operationId());
+    }
+
+    /**
+     * Marks the hold matching the registered operation for removal
+     *
+     * @return {@code true} if there is a matching hold
+     */
+    boolean match(AccountNumber accountNumber, LocalDate date, OperationType type, Money amount) {
+        final NavigableMap<LocalDate, ArrayDeque<OperationId>> dates = holds.get(new Key(accountNumber, type, amount));
+        if (dates == null) {
+            return false;
+        }
+        final Map.Entry<LocalDate, ArrayDeque<OperationId>> entry =
+                dates.subMap(date.minusDays(windowDays), true, date, true).firstEntry();
+        if (entry == null) {
+            return false;
+        }
+        matched.add(entry.getValue().remove());
+        if (entry.getValue().isEmpty()) {
+            dates.remove(entry.getKey());
+        }
+        return true;
+    }
+
+    /**
+     * Removes the matched holds from the accounting
+     */
+    void flush() {
+        if (matched.isEmpty()) {
+            return;
+        }
+        lookup.removeHoldOperations(List.copyOf(matched));
+        matched.clear();
+    }
+}
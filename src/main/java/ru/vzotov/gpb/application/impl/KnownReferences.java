@@ -0,0 +1,113 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.banking.domain.model.TransactionReference;
+import ru.vzotov.gpb.application.OperationRegistration;
+import ru.vzotov.gpb.application.TransactionReferenceLookup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * References of operations known to be registered in the accounting, checked through a bloom filter
+ */
+class KnownReferences {
+
+    private static final Logger log = LoggerFactory.getLogger(KnownReferences.class);
+
+    private final TransactionReferenceLookup lookup;
+
+    private final ReferenceBloomFilter filter;
+
+    private final File file;
+
+    private volatile boolean modified;
+
+    /**
+     * @param file file to persist the filter to, {@code null} to keep it in memory only
+     */
+    KnownReferences(TransactionReferenceLookup lookup, long expectedInsertions, double fpp, File file) {
+        this.lookup = lookup;
+        this.file = file;
+        this.filter = load(file, expectedInsertions, fpp);
+    }
+
+    /**
+     * @return operations of the chunk that are not registered yet
+     */
+    List<OperationRegistration> unknown(List<OperationRegistration> chunk) {
+        final List<TransactionReference> candidates = new ArrayList<>();
+        for (OperationRegistration operation : chunk) {
+            if (operation.transactionReference() != null
+                    && filter.mightContain(operation.transactionReference())) {
+                candidates.add(operation.transactionReference());
+            }
+        }
+        if (candidates.isEmpty()) {
+            return chunk;
+        }
+
+        final Set<TransactionReference> existing = lookup.findExisting(candidates);
+        if (existing.isEmpty()) {
+            return chunk;
+        }
+        final List<OperationRegistration> unknown = new ArrayList<>(Math.max(0, chunk.size() - existing.size()));
+        for (OperationRegistration operation : chunk) {
+            if (!existing.contains(operation.transactionReference())) {
+                unknown.add(operation);
+            }
+        }
+        return unknown;
+    }
+
+    void registered(List<OperationRegistration> operations) {
+        for (OperationRegistration operation : operations) {
+            if (operation.transactionReference() != null) {
+                filter.put(operation.transactionReference());
+                modified = true;
+            }
+        }
+    }
+
+    /**
+     * Persists the filter if it has learned new references
+     */
+    synchronized void save() {
+        if (file == null || !modified) {
+            return;
+        }
+        modified = false;
+        final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+                filter.writeTo(out);
+            }
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            modified = true;
+            log.warn("Unable to save known references {}", file, e);
+        }
+    }
+
+    private static ReferenceBloomFilter load(File file, long expectedInsertions, double fpp) {
+        if (file != null && file.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                return ReferenceBloomFilter.readFrom(in);
+            } catch (IOException e) {
+                log.warn("Unable to read known references {}, starting with an empty filter", file, e);
+            }
+        }
+        return new ReferenceBloomFilter(expectedInsertions, fpp);
+    }
+}
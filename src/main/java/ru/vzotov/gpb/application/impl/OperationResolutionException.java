@@ -0,0 +1,20 @@
+package ru.vzotov.gpb.application.impl;
+
+class OperationResolutionException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String reason;
+
+    /**
+     * @param reason short code of the failure used as a metric tag
+     */
+    OperationResolutionException(String reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    String reason() {
+        return reason;
+    }
+}
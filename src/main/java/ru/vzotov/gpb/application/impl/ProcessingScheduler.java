@@ -0,0 +1,118 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs processing of new reports on request, one run at a time. Pending requests are coalesced and runs
+ * are backed off while registration is slow
+ */
+class ProcessingScheduler implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessingScheduler.class);
+
+    private final Runnable task;
+
+    private final long interval;
+
+    private final long slowRegistration;
+
+    private final long maxBackoff;
+
+    private final ScheduledExecutorService executor;
+
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    private final LongAdder registrationNanos = new LongAdder();
+
+    private final LongAdder registrations = new LongAdder();
+
+    /**
+     * Earliest start of the next run by {@link System#nanoTime()}
+     */
+    private volatile long nextRun = System.nanoTime();
+
+    private volatile long backoff;
+
+    ProcessingScheduler(Runnable task, Duration interval, Duration slowRegistration, Duration maxBackoff) {
+        this.task = task;
+        this.interval = interval.toNanos();
+        this.slowRegistration = slowRegistration.toNanos();
+        this.maxBackoff = maxBackoff.toNanos();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "gpb-processing");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Requests a run, returns immediately
+     */
+    void request() {
+        if (pending.compareAndSet(false, true)) {
+            final long delay = Math.max(0, nextRun - System.nanoTime());
+            try {
+                executor.schedule(this::run, delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                pending.set(false);
+                log.warn("Processing scheduler is closed, request ignored");
+            }
+        }
+    }
+
+    /**
+     * Records the latency of registering a single operation in the accounting, thread-safe
+     */
+    void registered(long nanos) {
+        registrationNanos.add(nanos);
+        registrations.increment();
+    }
+
+    long backoff() {
+        return backoff;
+    }
+
+    private void run() {
+        final long delay = nextRun - System.nanoTime();
+        if (delay > 0) {
+            // the pause has grown after the request was scheduled
+            executor.schedule(this::run, delay, TimeUnit.NANOSECONDS);
+            return;
+        }
+        pending.set(false);
+        registrationNanos.reset();
+        registrations.reset();
+
+        final long started = System.nanoTime();
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            log.error("Processing of new reports failed", e);
+        }
+
+        final long count = registrations.sum();
+        final long average = count == 0 ? 0 : registrationNanos.sum() / count;
+        if (average > slowRegistration) {
+            backoff = Math.min(maxBackoff, Math.max(interval, backoff * 2));
+            log.warn("Registration of an operation takes {} ms on average, pause processing for {} ms",
+                    TimeUnit.NANOSECONDS.toMillis(average), TimeUnit.NANOSECONDS.toMillis(backoff));
+        } else if (count > 0) {
+            backoff = backoff / 2 < interval ? 0 : backoff / 2;
+        }
+        nextRun = Math.max(started + interval, System.nanoTime() + backoff);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
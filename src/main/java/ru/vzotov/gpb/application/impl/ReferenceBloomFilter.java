@@ -0,0 +1,126 @@
+package ru.vzotov.gpb.application.impl;
+
+import ru.vzotov.banking.domain.model.TransactionReference;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of transaction references, bit positions are derived from the MD5 digest of the reference
+ */
+final class ReferenceBloomFilter {
+
+    private static final int MAGIC = 0x47504246;
+
+    private static final int VERSION = 2;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not find MessageDigest with algorithm MD5", e);
+        }
+    });
+
+    private final AtomicLongArray bits;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions expected number of references
+     * @param fpp                desired probability of false positives
+     */
+    ReferenceBloomFilter(long expectedInsertions, double fpp) {
+        final long n = Math.max(1, expectedInsertions);
+        final long m = Math.max(64, (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+        this.bits = new AtomicLongArray(Math.toIntExact((m + 63) / 64));
+        this.bitCount = this.bits.length() * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    private ReferenceBloomFilter(AtomicLongArray bits, int hashCount) {
+        this.bits = bits;
+        this.bitCount = bits.length() * 64L;
+        this.hashCount = hashCount;
+    }
+
+    void put(TransactionReference reference) {
+        final byte[] hash = hash(reference);
+        final long h1 = half(hash, 0);
+        final long h2 = half(hash, 8) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = Math.floorMod(h1 + i * h2, bitCount);
+            final int index = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            long word;
+            while (((word = bits.get(index)) & mask) == 0 && !bits.compareAndSet(index, word, word | mask)) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * @return false if the reference has definitely never been put
+     */
+    boolean mightContain(TransactionReference reference) {
+        final byte[] hash = hash(reference);
+        final long h1 = half(hash, 0);
+        final long h2 = half(hash, 8) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(hashCount);
+        out.writeInt(bits.length());
+        for (int i = 0; i < bits.length(); i++) {
+            out.writeLong(bits.get(i));
+        }
+    }
+
+    static ReferenceBloomFilter readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unsupported format of bloom filter");
+        }
+        final int hashCount = in.readInt();
+        final int length = in.readInt();
+        if (hashCount <= 0 || length <= 0) {
+            throw new IOException("Invalid bloom filter");
+        }
+        final AtomicLongArray bits = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            bits.set(i, in.readLong());
+        }
+        return new ReferenceBloomFilter(bits, hashCount);
+    }
+
+    long bitCount() {
+        return bitCount;
+    }
+
+    private static byte[] hash(TransactionReference reference) {
+        return DIGEST.get().digest(reference.reference().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long half(byte[] hash, int offset) {
+        long result = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            result = result << 8 | (hash[i] & 0xff);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,199 @@
+package ru.vzotov.gpb.application.impl;
+
+import io.micrometer.core.instrument.Timer;
+import ru.vzotov.accounting.application.AccountNotFoundException;
+import ru.vzotov.accounting.application.AccountingService;
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.OperationId;
+import ru.vzotov.gpb.GazprombankMetrics;
+import ru.vzotov.gpb.application.BatchAccountingService;
+import ru.vzotov.gpb.application.HoldOperation;
+import ru.vzotov.gpb.application.OperationRegistration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Collects resolved operations into chunks and registers every chunk with a single call
+ */
+class RegistrationBatch {
+
+    private final AccountingService accountingService;
+
+    private final BatchAccountingService batchAccountingService;
+
+    private final int size;
+
+    private final Timer registrationTimer;
+
+    private final LongConsumer latency;
+
+    private final LongConsumer committed;
+
+    private final KnownReferences knownReferences;
+
+    private final GazprombankMetrics metrics;
+
+    private final HoldMatchingIndex holds;
+
+    private List<OperationRegistration> pending;
+
+    /**
+     * Number of the last row added to the batch
+     */
+    private long lastRow = -1;
+
+    /**
+     * @param batchAccountingService batch registration, {@code null} to register operations one by one
+     * @param committed              receives the number of leading rows of the report registered so far
+     * @param knownReferences        references of registered operations, {@code null} to register all operations
+     * @param holds                  index of hold operations, {@code null} to remove matching holds of every
+     *                               registered operation with a separate call
+     * @param latency                receives the latency of registering a single operation in nanoseconds
+     */
+    RegistrationBatch(AccountingService accountingService, BatchAccountingService batchAccountingService, int size,
+                      GazprombankMetrics metrics, LongConsumer committed, KnownReferences knownReferences,
+                      HoldMatchingIndex holds, LongConsumer latency) {
+        this.accountingService = accountingService;
+        this.batchAccountingService = batchAccountingService;
+        this.size = Math.max(1, size);
+        this.registrationTimer = metrics.registration(batchAccountingService != null ? "registerOperations" : "registerOperation");
+        this.committed = committed;
+        this.knownReferences = knownReferences;
+        this.metrics = metrics;
+        this.holds = holds;
+        this.latency = latency;
+        this.pending = new ArrayList<>(this.size);
+    }
+
+    void add(ResolvedOperation operation) throws AccountNotFoundException {
+        // Пропускаем записи о блокировании средств на счете.
+        // Это незавершенные операции, нельзя их учитывать как полноценные операции
+        // Для Газпромбанка работать не будет, т.к. у них проблемы в API по учету заблокированных средств
+        if (operation.hold()) {
+            flush();
+            if (holds != null) {
+                holds.load(operation.accountNumber());
+            }
+            final OperationId holdId = accountingService.registerHoldOperation(
+                    operation.accountNumber(),
+                    operation.date(),
+                    operation.type(),
+                    operation.amount(),
+                    operation.description()
+            );
+            if (holds != null && holdId != null) {
+                holds.add(new HoldOperation(holdId, operation.accountNumber(), operation.date(), operation.type(),
+                        operation.amount()));
+            }
+            lastRow = operation.row();
+            committed.accept(lastRow + 1);
+        } else {
+            pending.add(new OperationRegistration(
+                    operation.accountNumber(),
+                    operation.date(),
+                    operation.transactionReference(),
+                    operation.type(),
+                    operation.amount(),
+                    operation.description()
+            ));
+            lastRow = operation.row();
+            if (pending.size() >= size) {
+                flush();
+            }
+        }
+    }
+
+    void flush() throws AccountNotFoundException {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<OperationRegistration> chunk = pending;
+        final long rows = lastRow + 1;
+        pending = new ArrayList<>(size);
+
+        if (knownReferences != null) {
+            final List<OperationRegistration> unknown = knownReferences.unknown(chunk);
+            metrics.rowsSkipped(GazprombankMetrics.REASON_ALREADY_REGISTERED, chunk.size() - unknown.size());
+            chunk = unknown;
+        }
+
+        if (!chunk.isEmpty()) {
+            if (holds != null) {
+                final Set<AccountNumber> accounts = new LinkedHashSet<>();
+                chunk.forEach(operation -> accounts.add(operation.accountNumber()));
+                holds.load(accounts);
+            }
+            register(chunk);
+        }
+        if (knownReferences != null) {
+            knownReferences.registered(chunk);
+        }
+        committed.accept(rows);
+    }
+
+    private void register(List<OperationRegistration> chunk) throws AccountNotFoundException {
+        if (batchAccountingService != null) {
+            final long started = System.nanoTime();
+            final List<OperationId> operationIds;
+            try {
+                operationIds = batchAccountingService.registerOperations(chunk);
+            } finally {
+                registered(System.nanoTime() - started, chunk.size());
+            }
+            if (holds != null) {
+                for (OperationRegistration operation : chunk) {
+                    match(operation);
+                }
+            } else {
+                batchAccountingService.removeMatchingHoldOperations(operationIds);
+            }
+        } else {
+            for (OperationRegistration operation : chunk) {
+                final long started = System.nanoTime();
+                OperationId operationId;
+                try {
+                    operationId = accountingService.registerOperation(
+                            operation.accountNumber(),
+                            operation.date(),
+                            operation.transactionReference(),
+                            operation.type(),
+                            operation.amount(),
+                            operation.description()
+                    );
+                } finally {
+                    registered(System.nanoTime() - started, 1);
+                }
+
+                if (holds != null) {
+                    match(operation);
+                } else {
+                    accountingService.removeMatchingHoldOperations(operationId);
+                }
+            }
+        }
+    }
+
+    private void registered(long nanos, int operations) {
+        registrationTimer.record(nanos, TimeUnit.NANOSECONDS);
+        latency.accept(nanos / operations);
+    }
+
+    private void match(OperationRegistration operation) {
+        holds.match(operation.accountNumber(), operation.date(), operation.type(), operation.amount());
+    }
+
+    /**
+     * Removes holds matched by the registered operations from the accounting
+     */
+    void removeMatchedHolds() {
+        if (holds != null) {
+            holds.flush();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ru.vzotov.gpb.application.impl;
+
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.gpb.domain.model.GpbReportRepository;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Tracks the number of leading rows of a report registered in the accounting and saves it to the repository
+ * every {@code interval} rows, so an interrupted processing is resumed after the registered rows.
+ */
+class ReportCheckpoint implements LongConsumer {
+
+    private final GpbReportRepository repository;
+
+    private final AccountReportId reportId;
+
+    private final long interval;
+
+    private final long start;
+
+    private long committed;
+
+    private long saved;
+
+    private Runnable beforeSave = () -> {
+    };
+
+    /**
+     * @param interval number of rows between saved checkpoints, 0 disables checkpoints
+     */
+    ReportCheckpoint(GpbReportRepository repository, AccountReportId reportId, long interval) {
+        this.repository = repository;
+        this.reportId = reportId;
+        this.interval = interval;
+        this.start = interval > 0 ? Math.max(0, repository.committedRows(reportId)) : 0;
+        this.committed = start;
+        this.saved = start;
+    }
+
+    /**
+     * @return number of leading rows registered before, they must be skipped
+     */
+    long start() {
+        return start;
+    }
+
+    /**
+     * @param rows number of leading rows of the report registered so far
+     */
+    @Override
+    public void accept(long rows) {
+        if (rows > committed) {
+            committed = rows;
+        }
+        if (interval > 0 && committed - saved >= interval) {
+            save();
+        }
+    }
+
+    /**
+     * @param action completes the work covered by the checkpoint, it is run before every save
+     */
+    void beforeSave(Runnable action) {
+        this.beforeSave = action;
+    }
+
+    void save() {
+        beforeSave.run();
+        if (interval > 0 && committed > saved) {
+            repository.commitRows(reportId, committed);
+            saved = committed;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package ru.vzotov.gpb.application.impl;
+
+import ru.vzotov.accounting.application.AccountNotFoundException;
+import ru.vzotov.gpb.domain.model.GpbOperation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Parses a report in chunks on a parse thread, resolves the chunks concurrently and registers them
+ * on the calling thread in the order of the report
+ */
+class ReportPipeline implements AutoCloseable {
+
+    private static final Resolved END = new Resolved(Collections.emptyList(), null);
+
+    private final ExecutorService parseExecutor;
+
+    private final ExecutorService resolveExecutor;
+
+    private final ThreadLocal<GpbOperationResolver> resolver;
+
+    private final ConcurrentLookups concurrentLookups;
+
+    private final int chunkSize;
+
+    private final int queueCapacity;
+
+    /**
+     * @param resolvers         creates a resolver for every resolve worker
+     * @param concurrentLookups looks up cards and accounts of a chunk before it is resolved, may be {@code null}
+     * @param chunkSize         number of rows resolved by one task
+     * @param queueCapacity     number of chunks parsed ahead of the registration
+     */
+    ReportPipeline(Supplier<GpbOperationResolver> resolvers, ConcurrentLookups concurrentLookups,
+                   int resolveThreads, int chunkSize, int queueCapacity) {
+        this.parseExecutor = Executors.newSingleThreadExecutor(Threads.daemon("gpb-parse-"));
+        this.resolveExecutor = Executors.newFixedThreadPool(Math.max(1, resolveThreads), Threads.daemon("gpb-resolve-"));
+        this.resolver = ThreadLocal.withInitial(resolvers);
+        this.concurrentLookups = concurrentLookups;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Row that could not be bound to an account, rows before it are registered and rows after it are not
+     */
+    record Failure(long row, OperationResolutionException cause) {
+    }
+
+    private record Resolved(List<ResolvedOperation> operations, Failure failure) {
+    }
+
+    /**
+     * @param rows  rows of the report, iterated by the parse thread
+     * @param start number of leading rows to skip
+     * @return first row that could not be resolved, {@code null} if all rows are resolved
+     */
+    Failure run(Iterator<GpbOperation> rows, long start, RegistrationBatch batch) throws AccountNotFoundException {
+        final BlockingQueue<Future<Resolved>> queue = new ArrayBlockingQueue<>(queueCapacity);
+        parseExecutor.submit(() -> parse(rows, start, queue));
+
+        for (; ; ) {
+            final Resolved chunk = await(take(queue));
+            if (chunk == END) {
+                return null;
+            }
+            for (ResolvedOperation operation : chunk.operations()) {
+                batch.add(operation);
+            }
+            if (chunk.failure() != null) {
+                return chunk.failure();
+            }
+        }
+    }
+
+    private Void parse(Iterator<GpbOperation> rows, long start, BlockingQueue<Future<Resolved>> queue) throws InterruptedException {
+        try {
+            List<GpbOperation> chunk = new ArrayList<>(chunkSize);
+            long first = start;
+            for (long row = 0; rows.hasNext(); row++) {
+                final GpbOperation next = rows.next();
+                if (row < start) {
+                    continue;
+                }
+                chunk.add(next);
+                if (chunk.size() == chunkSize) {
+                    submit(chunk, first, queue);
+                    chunk = new ArrayList<>(chunkSize);
+                    first = row + 1;
+                }
+            }
+            if (!chunk.isEmpty()) {
+                submit(chunk, first, queue);
+            }
+            queue.put(CompletableFuture.completedFuture(END));
+        } catch (RuntimeException | Error e) {
+            queue.put(CompletableFuture.failedFuture(e));
+        }
+        return null;
+    }
+
+    private void submit(List<GpbOperation> chunk, long first, BlockingQueue<Future<Resolved>> queue) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        queue.put(CompletableFuture.supplyAsync(() -> resolve(chunk, first), resolveExecutor));
+    }
+
+    private Resolved resolve(List<GpbOperation> chunk, long first) {
+        final GpbOperationResolver resolver = this.resolver.get();
+        if (concurrentLookups != null) {
+            resolver.prefetch(chunk, concurrentLookups);
+        }
+        final List<ResolvedOperation> resolved = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            final long row = first + i;
+            try {
+                final ResolvedOperation operation = resolver.resolve(chunk.get(i), row);
+                if (operation != null) {
+                    resolved.add(operation);
+                }
+            } catch (OperationResolutionException e) {
+                return new Resolved(resolved, new Failure(row, e));
+            }
+        }
+        return new Resolved(resolved, null);
+    }
+
+    private static Future<Resolved> take(BlockingQueue<Future<Resolved>> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Processing of report interrupted", e);
+        }
+    }
+
+    private static Resolved await(Future<Resolved> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Processing of report interrupted", e);
+        } catch (ExecutionException e) {
+            throw Threads.rethrow(e);
+        }
+    }
+
+    /**
+     * Stops the stages and waits for the parse thread, so the report may be closed after this method returns
+     */
+    @Override
+    public void close() {
+        parseExecutor.shutdownNow();
+        resolveExecutor.shutdownNow();
+        try {
+            parseExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
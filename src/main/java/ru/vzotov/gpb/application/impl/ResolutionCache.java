@@ -0,0 +1,100 @@
+package ru.vzotov.gpb.application.impl;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded least-recently-used cache with time-based expiration of entries.
+ * Values are loaded outside of the lock, {@code null} values are not cached.
+ */
+final class ResolutionCache<K, V> {
+
+    private final String name;
+
+    private final int maximumSize;
+
+    private final long ttlNanos;
+
+    private final LongSupplier ticker;
+
+    private final Map<K, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    ResolutionCache(String name, int maximumSize, Duration ttl) {
+        this(name, maximumSize, ttl, System::nanoTime);
+    }
+
+    ResolutionCache(String name, int maximumSize, Duration ttl, LongSupplier ticker) {
+        this.name = name;
+        this.maximumSize = Math.max(0, maximumSize);
+        this.ttlNanos = ttl.toNanos();
+        this.ticker = ticker;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > ResolutionCache.this.maximumSize;
+            }
+        };
+    }
+
+    String name() {
+        return name;
+    }
+
+    V get(K key, Function<? super K, ? extends V> loader) {
+        if (maximumSize == 0) {
+            misses.incrementAndGet();
+            return loader.apply(key);
+        }
+
+        synchronized (entries) {
+            final Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt() - ticker.getAsLong() > 0) {
+                    hits.incrementAndGet();
+                    return entry.value();
+                }
+                entries.remove(key);
+            }
+        }
+
+        misses.incrementAndGet();
+        final V value = loader.apply(key);
+        if (value != null) {
+            synchronized (entries) {
+                entries.put(key, new Entry<>(value, ticker.getAsLong() + ttlNanos));
+            }
+        }
+        return value;
+    }
+
+    void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,24 @@
+package ru.vzotov.gpb.application.impl;
+
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.OperationType;
+import ru.vzotov.banking.domain.model.TransactionReference;
+import ru.vzotov.domain.model.Money;
+
+import java.time.LocalDate;
+
+/**
+ * Report operation bound to the account it has to be registered in.
+ *
+ * @param transactionReference reference of the operation, {@code null} for hold operations
+ * @param row                  zero-based number of the row of the report
+ */
+record ResolvedOperation(AccountNumber accountNumber,
+                         LocalDate date,
+                         TransactionReference transactionReference,
+                         OperationType type,
+                         Money amount,
+                         String description,
+                         boolean hold,
+                         long row) {
+}
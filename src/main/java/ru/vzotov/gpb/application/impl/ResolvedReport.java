@@ -0,0 +1,29 @@
+package ru.vzotov.gpb.application.impl;
+
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.banking.domain.model.AccountNumber;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Operations of the report resolved before registration.
+ *
+ * @param complete {@code false} if resolution stopped on an operation that can not be registered.
+ *                 Operations preceding it are still registered, but the report is not marked processed.
+ * @param rows     number of leading rows of the report covered by the operations
+ */
+record ResolvedReport(AccountReportId reportId, List<ResolvedOperation> operations, long rows, boolean complete) {
+
+    /**
+     * @return accounts the operations are registered in
+     */
+    Set<AccountNumber> accounts() {
+        final Set<AccountNumber> accounts = new HashSet<>();
+        for (ResolvedOperation operation : operations) {
+            accounts.add(operation.accountNumber());
+        }
+        return accounts;
+    }
+}
@@ -0,0 +1,35 @@
+package ru.vzotov.gpb.application.impl;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class Threads {
+
+    private Threads() {
+    }
+
+    /**
+     * @return factory of daemon threads named by the prefix and a number
+     */
+    static ThreadFactory daemon(String prefix) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Throws the cause of the failure of a task, checked causes are wrapped into {@link IllegalStateException}
+     */
+    static RuntimeException rethrow(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        } else if (e.getCause() instanceof Error error) {
+            throw error;
+        }
+        throw new IllegalStateException(e.getCause());
+    }
+}
@@ -0,0 +1,49 @@
+package ru.vzotov.gpb.application.impl;
+
+import java.util.Iterator;
+
+/**
+ * Measures time spent producing the elements of a lazy iterator, i.e. reading and parsing of a report stream.
+ */
+class TimedIterator<T> implements Iterator<T> {
+
+    private final Iterator<T> iterator;
+
+    private long nanos;
+
+    private long count;
+
+    TimedIterator(Iterator<T> iterator) {
+        this.iterator = iterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+        final long started = System.nanoTime();
+        try {
+            return iterator.hasNext();
+        } finally {
+            nanos += System.nanoTime() - started;
+        }
+    }
+
+    @Override
+    public T next() {
+        final long started = System.nanoTime();
+        try {
+            final T next = iterator.next();
+            count++;
+            return next;
+        } finally {
+            nanos += System.nanoTime() - started;
+        }
+    }
+
+    long nanos() {
+        return nanos;
+    }
+
+    long count() {
+        return count;
+    }
+}
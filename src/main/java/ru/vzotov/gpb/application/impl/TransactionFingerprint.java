@@ -0,0 +1,209 @@
+package ru.vzotov.gpb.application.impl;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Computes the md5 hex digest of {@code operationDate + "_" + accountNumber + "_" + amount + "_" + description}
+ * without intermediate strings, amounts are formatted like {@link Double#toString(double)}
+ */
+final class TransactionFingerprint {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Amounts below 10<sup>7</sup> are printed by {@link Double#toString(double)} in plain notation
+     */
+    private static final long MAX_PLAIN_AMOUNT_MINOR = 1_000_000_000L;
+
+    private static final ThreadLocal<TransactionFingerprint> INSTANCE = ThreadLocal.withInitial(TransactionFingerprint::new);
+
+    private final MessageDigest digest;
+
+    private final byte[] hash = new byte[16];
+
+    private final char[] hex = new char[32];
+
+    private byte[] buffer = new byte[256];
+
+    private int length;
+
+    private TransactionFingerprint() {
+        try {
+            this.digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not find MessageDigest with algorithm MD5", e);
+        }
+    }
+
+    /**
+     * @param amountMinor amount in minor units, it is formatted as {@code Double.toString(amountMinor / 100d)}
+     */
+    static String transactionId(LocalDateTime operationDate, String accountNumber, long amountMinor, String description) {
+        return transactionId(operationDate, accountNumber, amountMinor, false, description);
+    }
+
+    /**
+     * @param negativeZero zero amount is formatted as {@code -0.0}
+     */
+    static String transactionId(LocalDateTime operationDate, String accountNumber, long amountMinor,
+                                boolean negativeZero, String description) {
+        return INSTANCE.get().compute(operationDate, accountNumber, amountMinor, negativeZero, description);
+    }
+
+    private String compute(LocalDateTime operationDate, String accountNumber, long amountMinor, boolean negativeZero,
+                           String description) {
+        length = 0;
+        appendDateTime(operationDate);
+        appendAscii('_');
+        appendString(accountNumber);
+        appendAscii('_');
+        if (negativeZero && amountMinor == 0) {
+            appendAscii('-');
+        }
+        appendAmount(amountMinor);
+        appendAscii('_');
+        appendString(description);
+
+        digest.update(buffer, 0, length);
+        try {
+            digest.digest(hash, 0, hash.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private void appendDateTime(LocalDateTime value) {
+        final int year = value.getYear();
+        if (year < 1000 || year > 9999) {
+            appendString(value.toString());
+            return;
+        }
+        appendDigits(year, 4);
+        appendAscii('-');
+        appendDigits(value.getMonthValue(), 2);
+        appendAscii('-');
+        appendDigits(value.getDayOfMonth(), 2);
+        appendAscii('T');
+        appendDigits(value.getHour(), 2);
+        appendAscii(':');
+        appendDigits(value.getMinute(), 2);
+
+        final int second = value.getSecond();
+        final int nano = value.getNano();
+        if (second > 0 || nano > 0) {
+            appendAscii(':');
+            appendDigits(second, 2);
+            if (nano > 0) {
+                appendAscii('.');
+                if (nano % 1000_000 == 0) {
+                    appendDigits(nano / 1000_000, 3);
+                } else if (nano % 1000 == 0) {
+                    appendDigits(nano / 1000, 6);
+                } else {
+                    appendDigits(nano, 9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Formats the amount as {@code Double.toString(minor / 100d)} does
+     */
+    private void appendAmount(long minor) {
+        if (minor <= -MAX_PLAIN_AMOUNT_MINOR || minor >= MAX_PLAIN_AMOUNT_MINOR) {
+            appendString(Double.toString(minor / 100d));
+            return;
+        }
+
+        if (minor < 0) {
+            appendAscii('-');
+        }
+        final long cents = Math.abs(minor);
+        appendNumber(cents / 100);
+        appendAscii('.');
+        final int fraction = (int) (cents % 100);
+        if (fraction % 10 == 0) {
+            appendDigits(fraction / 10, 1);
+        } else {
+            appendDigits(fraction, 2);
+        }
+    }
+
+    private void appendNumber(long value) {
+        int digits = 1;
+        for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void appendDigits(int value, int digits) {
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void appendAscii(char c) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) c;
+    }
+
+    /**
+     * Encodes the string in UTF-8, unpaired surrogates are replaced with '?' as {@link String#getBytes} does
+     */
+    private void appendString(String value) {
+        if (value == null) {
+            value = "null";
+        }
+        final int count = value.length();
+        ensureCapacity(count * 3);
+        for (int i = 0; i < count; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                final int codePoint = Character.isHighSurrogate(c) && i + 1 < count
+                        && Character.isLowSurrogate(value.charAt(i + 1))
+                        ? Character.toCodePoint(c, value.charAt(++i)) : -1;
+                if (codePoint < 0) {
+                    buffer[length++] = '?';
+                } else {
+                    buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+                }
+            } else {
+                buffer[length++] = (byte) (0xe0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+        }
+    }
+}
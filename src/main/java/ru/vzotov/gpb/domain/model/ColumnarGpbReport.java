@@ -0,0 +1,261 @@
+package ru.vzotov.gpb.domain.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Operations of a report stored by columns in primitive arrays, materialized on access
+ */
+public final class ColumnarGpbReport {
+
+    private static final int NO_VALUE = -1;
+
+    private final int size;
+
+    private final long[] epochSeconds;
+
+    private final int[] nanos;
+
+    private final long[] amounts;
+
+    private final int[] accounts;
+
+    private final int[] cards;
+
+    private final int[] currencies;
+
+    private final int[] descriptions;
+
+    private final BitSet holds;
+
+    private final BitSet negativeZeros;
+
+    private final String[] accountDictionary;
+
+    private final String[] cardDictionary;
+
+    private final String[] currencyDictionary;
+
+    private final String[] descriptionPool;
+
+    private ColumnarGpbReport(Builder builder) {
+        this.size = builder.size;
+        this.epochSeconds = Arrays.copyOf(builder.epochSeconds, size);
+        this.nanos = builder.nanos == null ? null : Arrays.copyOf(builder.nanos, size);
+        this.amounts = Arrays.copyOf(builder.amounts, size);
+        this.accounts = Arrays.copyOf(builder.accounts, size);
+        this.cards = Arrays.copyOf(builder.cards, size);
+        this.currencies = Arrays.copyOf(builder.currencies, size);
+        this.descriptions = Arrays.copyOf(builder.descriptions, size);
+        this.holds = (BitSet) builder.holds.clone();
+        this.negativeZeros = (BitSet) builder.negativeZeros.clone();
+        this.accountDictionary = builder.accountDictionary.values();
+        this.cardDictionary = builder.cardDictionary.values();
+        this.currencyDictionary = builder.currencyDictionary.values();
+        this.descriptionPool = builder.descriptionPool.values();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static Collector<GpbOperation, Builder, ColumnarGpbReport> collector() {
+        final Supplier<Builder> supplier = Builder::new;
+        final BiConsumer<Builder, GpbOperation> accumulator = Builder::add;
+        final BinaryOperator<Builder> combiner = (left, right) -> {
+            for (GpbOperation operation : right.build().asList()) {
+                left.add(operation);
+            }
+            return left;
+        };
+        final Function<Builder, ColumnarGpbReport> finisher = Builder::build;
+        return Collector.of(supplier, accumulator, combiner, finisher);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public LocalDateTime operationDate(int row) {
+        return LocalDateTime.ofEpochSecond(epochSeconds[checkRow(row)], nanos == null ? 0 : nanos[row], ZoneOffset.UTC);
+    }
+
+    public long amountMinor(int row) {
+        return amounts[checkRow(row)];
+    }
+
+    public String accountNumber(int row) {
+        return lookup(accountDictionary, accounts[checkRow(row)]);
+    }
+
+    public String cardNumber(int row) {
+        return lookup(cardDictionary, cards[checkRow(row)]);
+    }
+
+    public String operationCurrency(int row) {
+        return lookup(currencyDictionary, currencies[checkRow(row)]);
+    }
+
+    public String description(int row) {
+        return lookup(descriptionPool, descriptions[checkRow(row)]);
+    }
+
+    public boolean hold(int row) {
+        return holds.get(checkRow(row));
+    }
+
+    public boolean negativeZero(int row) {
+        return negativeZeros.get(checkRow(row));
+    }
+
+    public GpbOperation get(int row) {
+        return new GpbOperation(
+                operationDate(row),
+                accountNumber(row),
+                cardNumber(row),
+                amountMinor(row),
+                operationCurrency(row),
+                description(row),
+                hold(row),
+                negativeZero(row)
+        );
+    }
+
+    /**
+     * @return view of the operations, every access creates a new operation object
+     */
+    public List<GpbOperation> asList() {
+        return new Operations();
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " is out of the " + size + " rows of the report");
+        }
+        return row;
+    }
+
+    private static String lookup(String[] dictionary, int id) {
+        return id == NO_VALUE ? null : dictionary[id];
+    }
+
+    private final class Operations extends AbstractList<GpbOperation> implements RandomAccess {
+        @Override
+        public GpbOperation get(int index) {
+            return ColumnarGpbReport.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Appends operations to the columns. Not thread-safe.
+     */
+    public static final class Builder {
+
+        private int size;
+
+        private long[] epochSeconds = new long[64];
+
+        private int[] nanos;
+
+        private long[] amounts = new long[64];
+
+        private int[] accounts = new int[64];
+
+        private int[] cards = new int[64];
+
+        private int[] currencies = new int[64];
+
+        private int[] descriptions = new int[64];
+
+        private final BitSet holds = new BitSet();
+
+        private final BitSet negativeZeros = new BitSet();
+
+        private final Dictionary accountDictionary = new Dictionary();
+
+        private final Dictionary cardDictionary = new Dictionary();
+
+        private final Dictionary currencyDictionary = new Dictionary();
+
+        private final Dictionary descriptionPool = new Dictionary();
+
+        private Builder() {
+        }
+
+        public Builder add(GpbOperation operation) {
+            if (size == epochSeconds.length) {
+                final int capacity = size * 2;
+                epochSeconds = Arrays.copyOf(epochSeconds, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                accounts = Arrays.copyOf(accounts, capacity);
+                cards = Arrays.copyOf(cards, capacity);
+                currencies = Arrays.copyOf(currencies, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+                if (nanos != null) {
+                    nanos = Arrays.copyOf(nanos, capacity);
+                }
+            }
+
+            final int row = size;
+            final LocalDateTime date = operation.operationDate();
+            epochSeconds[row] = date.toEpochSecond(ZoneOffset.UTC);
+            if (date.getNano() != 0) {
+                if (nanos == null) {
+                    nanos = new int[epochSeconds.length];
+                }
+                nanos[row] = date.getNano();
+            }
+
+            amounts[row] = operation.operationAmountMinor();
+            accounts[row] = accountDictionary.id(operation.accountNumber());
+            cards[row] = cardDictionary.id(operation.cardNumber());
+            currencies[row] = currencyDictionary.id(operation.operationCurrency());
+            descriptions[row] = descriptionPool.id(operation.description());
+            holds.set(row, operation.hold());
+            negativeZeros.set(row, operation.negativeZero());
+            size++;
+            return this;
+        }
+
+        public ColumnarGpbReport build() {
+            return new ColumnarGpbReport(this);
+        }
+    }
+
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int id(String value) {
+            if (value == null) {
+                return NO_VALUE;
+            }
+            return ids.computeIfAbsent(value, v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+
+        String[] values() {
+            return values.toArray(String[]::new);
+        }
+    }
+}
@@ -8,27 +8,66 @@ import ru.vzotov.ddd.shared.ValueObject;
 import java.time.LocalDateTime;
 import java.util.Objects;
 
+/**
+ * @param operationAmountMinor amount in minor units of the currency, e.g. kopecks
+ * @param negativeZero         the amount is zero written with a minus sign, e.g. {@code -0,00}
+ */
 public record GpbOperation(LocalDateTime operationDate,
                            String accountNumber,
                            String cardNumber,
-                           Double operationAmount,
+                           long operationAmountMinor,
                            String operationCurrency,
                            String description,
-                           boolean hold) implements ValueObject<GpbOperation>, AccountReportOperation {
+                           boolean hold,
+                           boolean negativeZero) implements ValueObject<GpbOperation>, AccountReportOperation {
 
     public GpbOperation {
         Validate.notNull(operationDate);
-        Validate.notNull(operationAmount);
         Validate.notEmpty(operationCurrency);
         Validate.notNull(description);
+        Validate.isTrue(!negativeZero || operationAmountMinor == 0, "Negative zero amount must be zero");
+    }
+
+    public GpbOperation(LocalDateTime operationDate,
+                        String accountNumber,
+                        String cardNumber,
+                        long operationAmountMinor,
+                        String operationCurrency,
+                        String description,
+                        boolean hold) {
+        this(operationDate, accountNumber, cardNumber, operationAmountMinor, operationCurrency, description, hold, false);
+    }
+
+    /**
+     * @param operationAmount amount with at most two decimal places
+     */
+    public GpbOperation(LocalDateTime operationDate,
+                        String accountNumber,
+                        String cardNumber,
+                        double operationAmount,
+                        String operationCurrency,
+                        String description,
+                        boolean hold) {
+        this(operationDate, accountNumber, cardNumber, toMinor(operationAmount), operationCurrency, description, hold,
+                Double.doubleToRawLongBits(operationAmount) == Double.doubleToRawLongBits(-0d));
+    }
+
+    private static long toMinor(double amount) {
+        final long minor = Math.round(amount * 100);
+        Validate.isTrue(minor / 100d == amount, "Amount has more than two decimal places or is out of range: %s", amount);
+        return minor;
+    }
 
+    public double operationAmount() {
+        return negativeZero ? -0d : operationAmountMinor / 100d;
     }
 
     @Override
     public boolean sameValueAs(GpbOperation that) {
         return that != null && new EqualsBuilder().
                 append(operationDate, that.operationDate).
-                append(operationAmount, that.operationAmount).
+                append(operationAmountMinor, that.operationAmountMinor).
+                append(negativeZero, that.negativeZero).
                 append(operationCurrency, that.operationCurrency).
                 append(description, that.description).
                 append(hold, that.hold).
@@ -46,7 +85,8 @@ public record GpbOperation(LocalDateTime operationDate,
     @Override
     public int hashCode() {
         return Objects.hash(operationDate
-                , operationAmount
+                , operationAmountMinor
+                , negativeZero
                 , operationCurrency
                 , description
                 , hold
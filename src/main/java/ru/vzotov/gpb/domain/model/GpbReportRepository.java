@@ -0,0 +1,57 @@
+package ru.vzotov.gpb.domain.model;
+
+import ru.vzotov.accounting.domain.model.AccountReport;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.accounting.domain.model.AccountReportRepository;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface GpbReportRepository extends AccountReportRepository<GpbOperation> {
+
+    /**
+     * Opens the report for sequential reading without materializing all operations in memory.
+     * The returned stream holds the underlying resources and must be closed by the caller.
+     *
+     * @param reportId report identifier
+     * @return lazy stream of report operations or {@code null} if there is no such report
+     */
+    default Stream<GpbOperation> stream(AccountReportId reportId) {
+        final AccountReport<GpbOperation> report = find(reportId);
+        return report == null ? null : report.operations().stream();
+    }
+
+    /**
+     * @param reportId report identifier
+     * @return number of leading rows of the report already registered by an interrupted processing, 0 if none
+     */
+    default long committedRows(AccountReportId reportId) {
+        return 0;
+    }
+
+    /**
+     * Durably records that the leading rows of the report are registered, so processing can be resumed after them.
+     * The record is dropped when the report is marked processed.
+     *
+     * @param reportId report identifier
+     * @param rows     number of leading rows registered
+     */
+    default void commitRows(AccountReportId reportId, long rows) {
+    }
+
+    /**
+     * @return identifiers of the shards of the repository, every shard may be scanned and processed by its own worker.
+     * A repository without shards is a single shard with an empty identifier
+     */
+    default List<String> shards() {
+        return List.of("");
+    }
+
+    /**
+     * @param shard identifier of the shard returned by {@link #shards()}
+     * @return unprocessed reports of the shard
+     */
+    default List<AccountReportId> findUnprocessed(String shard) {
+        return findUnprocessed();
+    }
+}
@@ -0,0 +1,343 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.lang3.StringUtils;
+import ru.vzotov.gpb.domain.model.GpbOperation;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.time.temporal.ChronoField.DAY_OF_MONTH;
+import static java.time.temporal.ChronoField.HOUR_OF_DAY;
+import static java.time.temporal.ChronoField.MINUTE_OF_HOUR;
+import static java.time.temporal.ChronoField.MONTH_OF_YEAR;
+import static java.time.temporal.ChronoField.SECOND_OF_MINUTE;
+import static java.time.temporal.ChronoField.YEAR;
+
+/**
+ * Decodes rows of GPB report into operations, columns are resolved once from the report header
+ */
+final class GpbOperationDecoder {
+
+    /**
+     * Fields of the row being decoded
+     */
+    interface Row {
+        /**
+         * @return value of the field, may be a view that is valid until the next call
+         */
+        CharSequence chars(int column);
+
+        String string(int column);
+    }
+
+    /**
+     * Adapter of commons-csv records, reused for all records of the report
+     */
+    static final class CsvRow implements Row {
+        private CSVRecord record;
+
+        CsvRow with(CSVRecord record) {
+            this.record = record;
+            return this;
+        }
+
+        @Override
+        public CharSequence chars(int column) {
+            return record.get(column);
+        }
+
+        @Override
+        public String string(int column) {
+            return record.get(column);
+        }
+    }
+
+    static final String HDR_ACCOUNT_NUMBER = "Номер счета";
+    static final String HDR_CARD_NUMBER = "Номер карты";
+
+    static final String HDR_DATE = "Дата операции";
+    static final String HDR_DESCRIPTION = "Описание операции";
+    static final String HDR_DEPOSIT = "Приход";
+    static final String HDR_WITHDRAW = "Расход";
+    static final String HDR_CURRENCY = "Валюта";
+    static final String HDR_FEE = "Комиссия";
+    static final String HDR_STATUS = "Статус";
+
+    /**
+     * Columns every layout must have, the fee column is optional
+     */
+    private static final List<String> REQUIRED_COLUMNS = List.of(
+            HDR_DATE, HDR_DESCRIPTION, HDR_DEPOSIT, HDR_WITHDRAW, HDR_CURRENCY, HDR_STATUS);
+
+    /**
+     * Known layouts of GPB exports. A layout is recognized by the column binding operations to an account
+     * or to a card, the other columns are common to all layouts.
+     */
+    enum Layout {
+        ACCOUNT(HDR_ACCOUNT_NUMBER),
+        CARD(HDR_CARD_NUMBER);
+
+        private final String key;
+
+        Layout(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the header does not match any known layout
+         */
+        static Layout detect(Map<String, Integer> header) {
+            for (Layout layout : values()) {
+                if (header.containsKey(layout.key)) {
+                    for (String column : REQUIRED_COLUMNS) {
+                        if (!header.containsKey(column)) {
+                            throw new IllegalArgumentException(String.format(
+                                    "Column %s not found in report of layout %s", column, layout));
+                        }
+                    }
+                    return layout;
+                }
+            }
+            throw new IllegalArgumentException("Unknown layout of report with columns " + header.keySet());
+        }
+    }
+
+    static final DateTimeFormatter DATETIME_FORMAT = new DateTimeFormatterBuilder()
+            .appendValue(DAY_OF_MONTH, 2)
+            .appendLiteral('.')
+            .appendValue(MONTH_OF_YEAR, 2)
+            .appendLiteral('.')
+            .appendValue(YEAR, 4)
+            .appendLiteral(' ')
+            .appendValue(HOUR_OF_DAY, 2)
+            .appendLiteral(':')
+            .appendValue(MINUTE_OF_HOUR, 2)
+            .appendLiteral(':')
+            .appendValue(SECOND_OF_MINUTE, 2)
+            .toFormatter();
+
+    private static final int DATETIME_LENGTH = 19;
+
+    /**
+     * Maximum number of digits of an amount that fits into a long in minor units
+     */
+    private static final int MAX_FAST_DIGITS = 15;
+
+    /**
+     * Result of amount parsing for blank values
+     */
+    static final long NO_AMOUNT = Long.MIN_VALUE;
+
+    private final Layout layout;
+
+    private final int accountNumber;
+    private final int cardNumber;
+    private final int date;
+    private final int description;
+    private final int deposit;
+    private final int withdraw;
+    private final int currency;
+    private final int fee;
+
+    private GpbOperationDecoder(Layout layout, Map<String, Integer> header) {
+        this.layout = layout;
+        this.accountNumber = header.getOrDefault(HDR_ACCOUNT_NUMBER, -1);
+        this.cardNumber = header.getOrDefault(HDR_CARD_NUMBER, -1);
+        this.date = header.get(HDR_DATE);
+        this.description = header.get(HDR_DESCRIPTION);
+        this.deposit = header.get(HDR_DEPOSIT);
+        this.withdraw = header.get(HDR_WITHDRAW);
+        this.currency = header.get(HDR_CURRENCY);
+        this.fee = header.getOrDefault(HDR_FEE, -1);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the header does not match any known layout
+     */
+    static GpbOperationDecoder forHeader(Map<String, Integer> header) {
+        return new GpbOperationDecoder(Layout.detect(header), header);
+    }
+
+    Layout layout() {
+        return layout;
+    }
+
+    GpbOperation decode(Row row) {
+        final LocalDateTime operationDateTime = parseDateTime(row.chars(date));
+        final String cardNumber = this.cardNumber >= 0 ? row.string(this.cardNumber) : null;
+        final String accountNumber = this.accountNumber >= 0 ? row.string(this.accountNumber) : null;
+        final String operationCurrency = mapCurrency(row.string(currency));
+        final String description = row.string(this.description);
+
+        int column = deposit;
+        long amount = parseAmountMinor(row, column, HDR_DEPOSIT);
+        if (amount == NO_AMOUNT) {
+            column = withdraw;
+            amount = parseAmountMinor(row, column, HDR_WITHDRAW);
+        }
+        if (amount == NO_AMOUNT && fee >= 0) {
+            column = fee;
+            amount = parseAmountMinor(row, column, HDR_FEE);
+        }
+        if (amount == NO_AMOUNT) {
+            throw new IllegalArgumentException("Amount of operation not found");
+        }
+
+        return new GpbOperation(
+                operationDateTime,
+                accountNumber,
+                cardNumber,
+                amount,
+                operationCurrency,
+                description,
+                false,
+                amount == 0 && isNegative(row.chars(column))
+        );
+    }
+
+    static String mapCurrency(String currency) {
+        if ("RUB".equalsIgnoreCase(currency)) {
+            return "RUR";
+        } else {
+            return currency;
+        }
+    }
+
+    private static long parseAmountMinor(Row row, int column, String header) {
+        final CharSequence value = row.chars(column);
+        try {
+            return parseAmountMinor(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value of column " + header + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isNegative(CharSequence value) {
+        return value != null && value.length() > 0 && value.charAt(0) == '-';
+    }
+
+    /**
+     * Parses amount in the "-4657,48" or "1 234,56" format into minor units.
+     *
+     * @param value text of amount
+     * @return amount in minor units or {@link #NO_AMOUNT} if the value is blank
+     * @throws IllegalArgumentException if the value is not an amount or has more than two significant decimal places
+     */
+    static long parseAmountMinor(CharSequence value) {
+        final int length = value == null ? 0 : value.length();
+        if (length == 0) {
+            return NO_AMOUNT;
+        }
+
+        int i = 0;
+        final boolean negative = value.charAt(0) == '-';
+        if (negative) {
+            i++;
+        }
+
+        long minor = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_FAST_DIGITS) {
+                    return parseAmountMinorSlow(value);
+                }
+                if (scale < 0) {
+                    minor = minor * 10 + (c - '0');
+                } else if (++scale <= 2) {
+                    minor += (c - '0') * (scale == 1 ? 10 : 1);
+                } else if (c != '0') {
+                    return parseAmountMinorSlow(value);
+                }
+            } else if (c == ',' && scale < 0 && digits > 0) {
+                scale = 0;
+                minor *= 100;
+            } else if (isGroupSeparator(c) && scale < 0 && digits > 0 && i + 1 < length && isDigit(value.charAt(i + 1))) {
+                // digit groups
+            } else {
+                return parseAmountMinorSlow(value);
+            }
+        }
+        if (digits == 0) {
+            return parseAmountMinorSlow(value);
+        }
+        if (scale < 0) {
+            minor *= 100;
+        }
+        return negative ? -minor : minor;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isGroupSeparator(char c) {
+        return c == ' ' || c == '\u00a0' || c == '\u202f';
+    }
+
+    private static long parseAmountMinorSlow(CharSequence value) {
+        if (StringUtils.isBlank(value)) {
+            return NO_AMOUNT;
+        }
+        final DecimalFormat decimals = new DecimalFormat("###.##", DecimalFormatSymbols.getInstance(new Locale("ru")));
+        decimals.setParseBigDecimal(true);
+        final ParsePosition position = new ParsePosition(0);
+        final BigDecimal amount = (BigDecimal) decimals.parse(value.toString(), position);
+        if (amount == null || position.getIndex() != value.length()) {
+            throw new IllegalArgumentException("Invalid amount: " + value);
+        }
+        try {
+            return amount.movePointRight(2).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Amount has more than two decimal places or is out of range: " + value, e);
+        }
+    }
+
+    /**
+     * Parses date and time in the "dd.MM.yyyy HH:mm:ss" format.
+     */
+    static LocalDateTime parseDateTime(CharSequence value) {
+        if (value.length() == DATETIME_LENGTH
+                && value.charAt(2) == '.' && value.charAt(5) == '.' && value.charAt(10) == ' '
+                && value.charAt(13) == ':' && value.charAt(16) == ':') {
+            final int day = digits(value, 0, 2);
+            final int month = digits(value, 3, 2);
+            final int year = digits(value, 6, 4);
+            final int hour = digits(value, 11, 2);
+            final int minute = digits(value, 14, 2);
+            final int second = digits(value, 17, 2);
+            if ((day | month | year | hour | minute | second) >= 0) {
+                try {
+                    return LocalDateTime.of(year, month, day, hour, minute, second);
+                } catch (DateTimeException e) {
+                    // let the formatter resolve or reject the value
+                }
+            }
+        }
+        return LocalDateTime.parse(value.toString(), DATETIME_FORMAT);
+    }
+
+    private static int digits(CharSequence value, int offset, int count) {
+        int result = 0;
+        for (int i = offset; i < offset + count; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
@@ -1,105 +1,101 @@
 package ru.vzotov.gpb.infrastructure.fs;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.csv.QuoteMode;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.vzotov.accounting.domain.model.AccountReport;
 import ru.vzotov.accounting.domain.model.AccountReportId;
 import ru.vzotov.accounting.domain.model.AccountReportRepository;
+import ru.vzotov.gpb.GazprombankMetrics;
+import ru.vzotov.gpb.domain.model.ColumnarGpbReport;
 import ru.vzotov.gpb.domain.model.GpbOperation;
+import ru.vzotov.gpb.domain.model.GpbReportRepository;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.ParseException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeFormatterBuilder;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.Objects;
 import java.util.function.Function;
-import java.util.stream.StreamSupport;
+import java.util.stream.Stream;
 
-import static java.time.temporal.ChronoField.DAY_OF_MONTH;
-import static java.time.temporal.ChronoField.HOUR_OF_DAY;
-import static java.time.temporal.ChronoField.MINUTE_OF_HOUR;
-import static java.time.temporal.ChronoField.MONTH_OF_YEAR;
-import static java.time.temporal.ChronoField.SECOND_OF_MINUTE;
-import static java.time.temporal.ChronoField.YEAR;
-
-public class GpbReportRepositoryFiles implements AccountReportRepository<GpbOperation> {
-
-    private static final String HDR_ACCOUNT_NUMBER = "Номер счета";
-    private static final String HDR_CARD_NUMBER = "Номер карты";
-
-    private static final String HDR_DATE = "Дата операции";
-    private static final String HDR_DESCRIPTION = "Описание операции";
-    private static final String HDR_DEPOSIT = "Приход";
-    private static final String HDR_WITHDRAW = "Расход";
-    private static final String HDR_CURRENCY = "Валюта";
-    private static final String HDR_FEE = "Комиссия";
-    private static final String HDR_STATUS = "Статус";
+public class GpbReportRepositoryFiles implements GpbReportRepository {
 
     private static final Logger log = LoggerFactory.getLogger(AccountReportRepository.class);
 
     private static final String REPORT_EXT = ".csv";
     private static final String REPORT_PROCESSED_EXT = "_processed.csv";
+    private static final String UPLOAD_EXT = ".upload";
 
-    private static final DateTimeFormatter DATETIME_FORMAT = new DateTimeFormatterBuilder()
-            .appendValue(DAY_OF_MONTH, 2)
-            .appendLiteral('.')
-            .appendValue(MONTH_OF_YEAR, 2)
-            .appendLiteral('.')
-            .appendValue(YEAR, 4)
-            .appendLiteral(' ')
-            .appendValue(HOUR_OF_DAY, 2)
-            .appendLiteral(':')
-            .appendValue(MINUTE_OF_HOUR, 2)
-            .appendLiteral(':')
-            .appendValue(SECOND_OF_MINUTE, 2)
-            .toFormatter();
-
-    private static final Function<File, AccountReportId> MAPPER = file -> {
-        try {
-            BasicFileAttributes basicFileAttributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
-
-            return new AccountReportId(file.getName(), basicFileAttributes.creationTime().toInstant());
-        } catch (IOException e) {
-            throw new IllegalArgumentException(e);
-        }
-    };
+    private static final CSVFormat CSV_FORMAT = CSVFormat.Builder.create(CSVFormat.Predefined.Default.getFormat())
+            .setDelimiter(',')
+            .setQuote('"')
+            .setQuoteMode(QuoteMode.MINIMAL)
+            .setTrailingDelimiter(false)
+            .setHeader()
+            .setSkipHeaderRecord(true)
+            .build();
 
     private final String baseDirectoryPath;
 
     private final File baseDirectory;
 
+    private final ReportDirectoryIndex index;
+
+    private final ReportContentHashes contentHashes;
+
+    private ReportReadMode readMode = ReportReadMode.CSV;
+
+    private boolean parsedCache;
+
+    private boolean validateUploads;
+
+    private GazprombankMetrics metrics = GazprombankMetrics.noop();
+
+    /**
+     * Name of a report with the same content outside of this directory by hash
+     */
+    private Function<String, String> contentLookup;
+
     public GpbReportRepositoryFiles(String baseDirectoryPath) {
+        this(baseDirectoryPath, null);
+    }
+
+    /**
+     * @param indexFilePath file to persist the index of reports to, {@code null} to keep the index in memory
+     */
+    public GpbReportRepositoryFiles(String baseDirectoryPath, String indexFilePath) {
         this.baseDirectoryPath = baseDirectoryPath;
         this.baseDirectory = new File(baseDirectoryPath);
         log.info("Check base directory permissions {}", this.baseDirectory.getAbsolutePath());
         Validate.isTrue(this.baseDirectory.isDirectory());
         Validate.isTrue(this.baseDirectory.canRead());
+        this.index = new ReportDirectoryIndex(this.baseDirectory,
+                indexFilePath == null ? null : new File(indexFilePath), REPORT_EXT, REPORT_PROCESSED_EXT);
+        this.contentHashes = new ReportContentHashes(this.baseDirectory, REPORT_EXT);
+        this.index.onReindex(this::reindexed);
     }
 
     protected String getBaseDirectoryPath() {
@@ -110,103 +106,173 @@ public class GpbReportRepositoryFiles implements AccountReportRepository<GpbOper
         return baseDirectory;
     }
 
-    private static DecimalFormat createDecimalFormat(Locale locale) {
-        return new DecimalFormat("###.##", DecimalFormatSymbols.getInstance(locale));
+    public ReportReadMode getReadMode() {
+        return readMode;
     }
 
-    static String mapCurrency(String currency) {
-        if ("RUB".equalsIgnoreCase(currency)) {
-            return "RUR";
-        } else {
-            return currency;
-        }
+    public void setReadMode(ReportReadMode readMode) {
+        this.readMode = Validate.notNull(readMode);
     }
 
-    static Double parseDoubleOrNull(String doubleString, DecimalFormat decimals) {
-        if (doubleString == null || doubleString.isEmpty()) {
-            return null;
-        } else {
-            try {
-                return decimals.parse(doubleString).doubleValue();
-            } catch (ParseException e) {
-                return null;
-            }
-        }
+    public boolean isParsedCache() {
+        return parsedCache;
+    }
+
+    /**
+     * @param parsedCache keep parsed operations next to the reports and read them instead of parsing the reports again
+     */
+    public void setParsedCache(boolean parsedCache) {
+        this.parsedCache = parsedCache;
+    }
+
+    public boolean isValidateUploads() {
+        return validateUploads;
+    }
+
+    /**
+     * @param validateUploads parse saved reports while they are written and reject invalid reports
+     *                        and reports with the same content as an existing one
+     */
+    public void setValidateUploads(boolean validateUploads) {
+        this.validateUploads = validateUploads;
+    }
+
+    public void setMetrics(GazprombankMetrics metrics) {
+        this.metrics = Validate.notNull(metrics);
+    }
+
+    void setContentLookup(Function<String, String> contentLookup) {
+        this.contentLookup = contentLookup;
+    }
+
+    /**
+     * @return whether the report is saved in the directory, processed or not
+     */
+    boolean contains(String name) {
+        final String baseName = FilenameUtils.removeExtension(name);
+        return new File(this.getBaseDirectory(), name).exists()
+                || new File(this.getBaseDirectory(), baseName + REPORT_PROCESSED_EXT).exists();
+    }
+
+    /**
+     * @return name of the report of the directory with the content or {@code null} if there is none
+     */
+    String findContent(String hash) throws IOException {
+        return contentHashes.find(hash);
     }
 
     @Override
     public AccountReport<GpbOperation> find(AccountReportId reportId) {
+        try (Stream<GpbOperation> operations = stream(reportId)) {
+            return new AccountReport<>(reportId, operations.collect(ColumnarGpbReport.collector()).asList());
+        } catch (UncheckedIOException e) {
+            throw new IllegalArgumentException(e.getCause());
+        }
+    }
+
+    @Override
+    public Stream<GpbOperation> stream(AccountReportId reportId) {
         Validate.notNull(reportId);
         final File reportFile = new File(this.getBaseDirectory(), reportId.name());
         Validate.isTrue(reportFile.exists() && reportFile.canRead());
 
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.registerModule(new JavaTimeModule());
-        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
-        try (Reader in = new InputStreamReader(new FileInputStream(reportFile), StandardCharsets.UTF_8)) {
-            final CSVFormat csvFormat = CSVFormat.Builder.create(CSVFormat.Predefined.Default.getFormat())
-                    .setDelimiter(',')
-                    .setQuote('"')
-                    .setQuoteMode(QuoteMode.MINIMAL)
-                    .setTrailingDelimiter(false)
-                    .setHeader()
-                    .setSkipHeaderRecord(true)
-                    .build();
-
-            Iterable<CSVRecord> records = csvFormat.parse(in);
-            final List<GpbOperation> operations = StreamSupport.stream(records.spliterator(), false)
-                    .map(record -> {
-                        final String status = record.get(HDR_STATUS);
-                        final DecimalFormat decimals = createDecimalFormat(new Locale("ru"));
-                        final LocalDateTime operationDateTime = LocalDateTime.parse(record.get(HDR_DATE), DATETIME_FORMAT);
-                        final String cardNumber = record.isMapped(HDR_CARD_NUMBER) ? record.get(HDR_CARD_NUMBER) : null;
-                        final String accountNumber = record.isMapped(HDR_ACCOUNT_NUMBER) ? record.get(HDR_ACCOUNT_NUMBER) : null;
-                        final String operationCurrency = mapCurrency(record.get(HDR_CURRENCY));
-                        final String description = record.get(HDR_DESCRIPTION);
-                        final Double deposit = parseDoubleOrNull(record.get(HDR_DEPOSIT), decimals);
-                        final Double withdraw = parseDoubleOrNull(record.get(HDR_WITHDRAW), decimals);
-                        final Double fee = parseDoubleOrNull(record.get(HDR_FEE), decimals);
-
-                        return new GpbOperation(
-                                operationDateTime,
-                                accountNumber,
-                                cardNumber,
-                                deposit != null ? deposit : withdraw != null ? withdraw : fee,
-                                operationCurrency,
-                                description,
-                                false
-                        );
-                    }).toList();
-
-            return new AccountReport<>(reportId, operations);
+        if (!parsedCache) {
+            return parse(reportFile);
+        }
+        final Stream<GpbOperation> cached = ParsedReportCache.read(reportFile);
+        return cached != null ? cached : ParsedReportCache.writing(reportFile, parse(reportFile));
+    }
+
+    private Stream<GpbOperation> parse(File reportFile) {
+        try {
+            return switch (readMode) {
+                case MAPPED -> MappedReportReader.stream(reportFile);
+                case CSV -> streamCsv(reportFile);
+            };
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private Stream<GpbOperation> streamCsv(File reportFile) {
+        final CSVParser parser;
+        try {
+            parser = CSV_FORMAT.parse(new InputStreamReader(new FileInputStream(reportFile), StandardCharsets.UTF_8));
         } catch (FileNotFoundException e) {
             throw new IllegalStateException(e);
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
+
+        final GpbOperationDecoder decoder;
+        try {
+            decoder = GpbOperationDecoder.forHeader(
+                    Objects.requireNonNullElse(parser.getHeaderMap(), Collections.emptyMap()));
+        } catch (RuntimeException e) {
+            try {
+                parser.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+        final GpbOperationDecoder.CsvRow row = new GpbOperationDecoder.CsvRow();
+        return parser.stream()
+                .map(record -> decoder.decode(row.with(record)))
+                .onClose(() -> {
+                    try {
+                        parser.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
     }
 
     @Override
     public List<AccountReportId> findAll() {
-        final FileFilter filter = pathname -> pathname.getName().endsWith(REPORT_EXT);
-
-        return Arrays.stream(Objects.requireNonNull(this.getBaseDirectory().listFiles(filter)))
-                .sorted(Comparator.naturalOrder())
-                .map(MAPPER)
-                .toList();
-
+        return index.findAll();
     }
 
     @Override
     public List<AccountReportId> findUnprocessed() {
-        final FileFilter filter = pathname -> pathname.getName().toLowerCase().endsWith(REPORT_EXT)
-                && !pathname.getName().toLowerCase().endsWith(REPORT_PROCESSED_EXT);
+        final List<AccountReportId> reports = index.findUnprocessed();
+        updateBacklog();
+        return reports;
+    }
+
+    int unprocessedCount() {
+        return index.unprocessedCount();
+    }
+
+    Instant oldestUnprocessed() {
+        return index.oldestUnprocessed();
+    }
+
+    private void updateBacklog() {
+        metrics.backlog(index.unprocessedCount(), index.oldestUnprocessed());
+    }
 
-        return Arrays.stream(Objects.requireNonNull(this.getBaseDirectory().listFiles(filter)))
-                .sorted(Comparator.naturalOrder())
-                .map(MAPPER)
-                .toList();
+    /**
+     * Lists the directory again, picking up reports added or removed bypassing this repository.
+     */
+    public void reindex() {
+        index.reindex();
+    }
+
+    /**
+     * Reports added bypassing this repository are hashed when they are indexed rather than on the next upload
+     */
+    private void reindexed() {
+        if (!validateUploads) {
+            contentHashes.reset();
+            return;
+        }
+        try {
+            contentHashes.update();
+        } catch (IOException e) {
+            contentHashes.reset();
+            log.warn("Unable to hash reports of {}", baseDirectory, e);
+        }
     }
 
     @Override
@@ -222,11 +288,46 @@ public class GpbReportRepositoryFiles implements AccountReportRepository<GpbOper
         Validate.isTrue(reportFile.exists() && reportFile.canRead() && reportFile.canWrite());
         Validate.isTrue(!processedReportFile.exists());
 
+        final long stamp = index.stamp();
         try {
             FileUtils.moveFile(reportFile, processedReportFile);
         } catch (IOException e) {
             throw new IllegalStateException("Unable to mark processed", e);
         }
+        try {
+            ReportCheckpoints.delete(reportFile);
+        } catch (IOException e) {
+            log.warn("Unable to delete checkpoint of processed report {}", reportId, e);
+        }
+        try {
+            ParsedReportCache.move(reportFile, processedReportFile);
+        } catch (IOException e) {
+            log.warn("Unable to move parsed cache of processed report {}", reportId, e);
+        }
+        contentHashes.moved(reportFile, processedReportFile);
+        index.moved(stamp, reportFile, processedReportFile);
+        updateBacklog();
+    }
+
+    @Override
+    public long committedRows(AccountReportId reportId) {
+        Validate.notNull(reportId);
+        return ReportCheckpoints.read(new File(this.getBaseDirectory(), reportId.name()));
+    }
+
+    @Override
+    public void commitRows(AccountReportId reportId, long rows) {
+        Validate.notNull(reportId);
+        final File reportFile = new File(this.getBaseDirectory(), reportId.name());
+        Validate.isTrue(reportFile.exists());
+
+        final long stamp = index.stamp();
+        try {
+            ReportCheckpoints.write(reportFile, rows);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to save checkpoint", e);
+        }
+        index.touched(stamp);
     }
 
     @Override
@@ -243,9 +344,78 @@ public class GpbReportRepositoryFiles implements AccountReportRepository<GpbOper
         final File processedReportFile = new File(this.getBaseDirectory(), baseName + REPORT_PROCESSED_EXT);
         Validate.isTrue(!processedReportFile.exists(), "Report file with this name is already processed earlier:", name);
 
-        FileUtils.copyInputStreamToFile(content, reportFile);
+        final long stamp = index.stamp();
+        if (validateUploads) {
+            upload(name, content, reportFile);
+        } else {
+            FileUtils.copyInputStreamToFile(content, reportFile);
+        }
+
+        final AccountReportId reportId = index.added(stamp, reportFile);
+        updateBacklog();
+        return reportId;
+    }
 
-        return MAPPER.apply(reportFile);
+    /**
+     * Writes the content to a temporary file, validating and hashing it in the same pass,
+     * and moves the file in place if the report is valid and its content is not saved yet.
+     */
+    private void upload(String name, InputStream content, File reportFile) throws IOException {
+        // unique name, so a file left by an interrupted upload does not block the report
+        final File tempFile = Files.createTempFile(this.getBaseDirectory().toPath(), name + ".", UPLOAD_EXT).toFile();
+        try {
+            final String hash = receive(content, tempFile);
+            String existing = contentHashes.add(hash, name);
+            if (existing == null && contentLookup != null) {
+                existing = contentLookup.apply(hash);
+                if (existing != null) {
+                    contentHashes.remove(hash);
+                }
+            }
+            if (existing != null) {
+                throw new IllegalArgumentException("Report with the same content is already saved as " + existing);
+            }
+            try {
+                Files.move(tempFile.toPath(), reportFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                contentHashes.remove(hash);
+                throw e;
+            }
+            contentHashes.saved(reportFile, hash);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * @return SHA-256 of the content
+     * @throws IllegalArgumentException if the content is not a valid report
+     */
+    private static String receive(InputStream content, File file) throws IOException {
+        final MessageDigest digest = ReportContentHashes.digest();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final InputStream in = new DigestInputStream(
+                    new TeeInputStream(content, Channels.newOutputStream(channel)), digest);
+            try (CSVParser parser = CSV_FORMAT.parse(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                final GpbOperationDecoder decoder = GpbOperationDecoder.forHeader(
+                        Objects.requireNonNullElse(parser.getHeaderMap(), Collections.emptyMap()));
+                final GpbOperationDecoder.CsvRow row = new GpbOperationDecoder.CsvRow();
+                for (CSVRecord record : parser) {
+                    try {
+                        decoder.decode(row.with(record));
+                    } catch (RuntimeException e) {
+                        throw new IllegalArgumentException("Invalid row " + record.getRecordNumber() + " of report: "
+                                + e.getMessage(), e);
+                    }
+                }
+                in.transferTo(OutputStream.nullOutputStream());
+            } catch (UncheckedIOException e) {
+                throw new IllegalArgumentException("Invalid report: " + e.getCause().getMessage(), e);
+            }
+            channel.force(true);
+        }
+        return ReportContentHashes.hex(digest);
     }
 
 }
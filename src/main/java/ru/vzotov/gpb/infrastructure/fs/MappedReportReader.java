@@ -0,0 +1,390 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+import ru.vzotov.gpb.domain.model.GpbOperation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reader of GPB reports that scans UTF-8 bytes of a memory-mapped file by the rules of
+ * {@link org.apache.commons.csv.CSVFormat#DEFAULT}
+ */
+final class MappedReportReader implements GpbOperationDecoder.Row {
+
+    private static final byte DELIMITER = ',';
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private final ByteBuffer buffer;
+
+    private final int limit;
+
+    private final ByteSequence sequence;
+
+    private int position;
+
+    private int recordStart;
+
+    private int fieldCount;
+
+    private int[] starts = new int[16];
+
+    private int[] ends = new int[16];
+
+    private boolean[] escaped = new boolean[16];
+
+    private boolean[] ascii = new boolean[16];
+
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Last decoded value of every column, values like account number and currency repeat from row to row
+     */
+    private String[] lastValues = new String[16];
+
+    private byte[][] lastBytes = new byte[16][];
+
+    MappedReportReader(ByteBuffer buffer, int position, int limit) {
+        this.buffer = buffer;
+        this.position = position;
+        this.limit = limit;
+        this.sequence = new ByteSequence(buffer);
+    }
+
+    private static ByteBuffer map(FileChannel channel, File file) throws IOException {
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Report is too large to be mapped: " + file);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * Opens lazy stream of operations of the report. The channel is closed with the stream and the mapping
+     * is released by the garbage collector after that.
+     */
+    static Stream<GpbOperation> stream(File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final Operations operations = new Operations(channel, map(channel, file));
+            return StreamSupport.stream(operations, false).onClose(operations::close);
+        } catch (IOException | RuntimeException e) {
+            try {
+                channel.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+    }
+
+    private static final class Operations extends Spliterators.AbstractSpliterator<GpbOperation> {
+
+        private final FileChannel channel;
+
+        private final GpbOperationDecoder decoder;
+
+        private MappedReportReader reader;
+
+        Operations(FileChannel channel, ByteBuffer buffer) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.channel = channel;
+            this.decoder = GpbOperationDecoder.forHeader(header(buffer));
+            this.reader = new MappedReportReader(buffer, bodyStart(buffer), buffer.limit());
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super GpbOperation> action) {
+            if (reader == null || !reader.next()) {
+                return false;
+            }
+            action.accept(decoder.decode(reader));
+            return true;
+        }
+
+        void close() {
+            reader = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * @return column indexes by names from the header of the report
+     */
+    static Map<String, Integer> header(ByteBuffer buffer) {
+        final MappedReportReader reader = new MappedReportReader(buffer, bomLength(buffer), buffer.limit());
+        final Map<String, Integer> header = new LinkedHashMap<>();
+        if (reader.next()) {
+            for (int i = 0; i < reader.fieldCount; i++) {
+                header.put(reader.string(i), i);
+            }
+        }
+        return header;
+    }
+
+    /**
+     * @return position of the first record following the header
+     */
+    static int bodyStart(ByteBuffer buffer) {
+        final MappedReportReader reader = new MappedReportReader(buffer, bomLength(buffer), buffer.limit());
+        reader.next();
+        return reader.position;
+    }
+
+    private static int bomLength(ByteBuffer buffer) {
+        return buffer.limit() >= 3
+                && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF ? 3 : 0;
+    }
+
+    /**
+     * Finds boundaries of fields of the next non-empty record.
+     *
+     * @return false if there are no more records
+     */
+    boolean next() {
+        while (position < limit && isLineEnd(buffer.get(position))) {
+            position++;
+        }
+        if (position >= limit) {
+            return false;
+        }
+
+        recordStart = position;
+        fieldCount = 0;
+        while (true) {
+            readField();
+            if (position < limit && buffer.get(position) == DELIMITER) {
+                position++;
+                continue;
+            }
+            if (position < limit && buffer.get(position) == CR) {
+                position++;
+            }
+            if (position < limit && buffer.get(position) == LF) {
+                position++;
+            }
+            return true;
+        }
+    }
+
+    private void readField() {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, fieldCount * 2);
+            ends = Arrays.copyOf(ends, fieldCount * 2);
+            escaped = Arrays.copyOf(escaped, fieldCount * 2);
+            ascii = Arrays.copyOf(ascii, fieldCount * 2);
+        }
+
+        int pos = position;
+        int start;
+        int end;
+        boolean hasEscapes = false;
+        int bytes = 0;
+        if (pos < limit && buffer.get(pos) == QUOTE) {
+            start = ++pos;
+            end = -1;
+            while (pos < limit) {
+                final byte b = buffer.get(pos);
+                bytes |= b;
+                if (b == QUOTE) {
+                    if (pos + 1 < limit && buffer.get(pos + 1) == QUOTE) {
+                        hasEscapes = true;
+                        pos += 2;
+                        continue;
+                    }
+                    end = pos++;
+                    break;
+                }
+                pos++;
+            }
+            if (end < 0) {
+                throw parseError("(startline " + line(recordStart) + ") EOF reached before encapsulated token finished");
+            }
+            // whitespace between the closing quote and the delimiter is ignored
+            while (pos < limit && isWhitespace(buffer.get(pos))) {
+                pos++;
+            }
+            if (pos < limit && !isFieldEnd(buffer.get(pos))) {
+                throw parseError("(line " + line(pos) + ") invalid char between encapsulated token and delimiter");
+            }
+        } else {
+            start = pos;
+            byte b;
+            while (pos < limit && !isFieldEnd(b = buffer.get(pos))) {
+                bytes |= b;
+                pos++;
+            }
+            end = pos;
+        }
+
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        escaped[fieldCount] = hasEscapes;
+        ascii[fieldCount] = bytes >= 0;
+        fieldCount++;
+        position = pos;
+    }
+
+    /**
+     * @return error thrown by commons-csv for the same input
+     */
+    private static IllegalStateException parseError(String message) {
+        final IOException cause = new IOException(message);
+        return new IllegalStateException("IOException reading next record: " + cause, cause);
+    }
+
+    /**
+     * @return number of the line containing the position, counting from 1
+     */
+    private int line(int position) {
+        int line = 1;
+        for (int i = 0; i < position; i++) {
+            final byte b = buffer.get(i);
+            if (b == LF || b == CR && (i + 1 == buffer.limit() || buffer.get(i + 1) != LF)) {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Same as {@link Character#isWhitespace(char)} except line ends
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == 0x0B || b == '\f' || b >= 0x1C && b <= 0x1F;
+    }
+
+        private static boolean isLineEnd(byte b) {
+        return b == LF || b == CR;
+    }
+
+    private static boolean isFieldEnd(byte b) {
+        return b == DELIMITER || b == LF || b == CR;
+    }
+
+    @Override
+    public CharSequence chars(int column) {
+        checkColumn(column);
+        if (escaped[column] || !ascii[column]) {
+            // decoded, so multibyte characters like no-break space in amounts are seen as characters
+            return string(column);
+        }
+        return sequence.with(starts[column], ends[column] - starts[column]);
+    }
+
+    @Override
+    public String string(int column) {
+        checkColumn(column);
+        final int length = copy(column);
+
+        if (column >= lastValues.length) {
+            lastValues = Arrays.copyOf(lastValues, Math.max(column + 1, lastValues.length * 2));
+            lastBytes = Arrays.copyOf(lastBytes, lastValues.length);
+        }
+        final byte[] last = lastBytes[column];
+        if (last != null && Arrays.equals(last, 0, last.length, scratch, 0, length)) {
+            return lastValues[column];
+        }
+
+        final String value = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        lastBytes[column] = Arrays.copyOf(scratch, length);
+        lastValues[column] = value;
+        return value;
+    }
+
+    /**
+     * Copies unescaped bytes of the field into the scratch buffer
+     *
+     * @return number of copied bytes
+     */
+    private int copy(int column) {
+        final int start = starts[column];
+        final int length = ends[column] - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        if (!escaped[column]) {
+            buffer.get(start, scratch, 0, length);
+            return length;
+        }
+
+        int count = 0;
+        for (int i = start; i < start + length; i++) {
+            final byte b = buffer.get(i);
+            scratch[count++] = b;
+            if (b == QUOTE) {
+                i++;
+            }
+        }
+        return count;
+    }
+
+    private void checkColumn(int column) {
+        if (column >= fieldCount) {
+            throw new ArrayIndexOutOfBoundsException(
+                    String.format("Index %d is out of the %d values of the record", column, fieldCount));
+        }
+    }
+
+    /**
+     * View of ASCII bytes as characters
+     */
+    static final class ByteSequence implements CharSequence {
+
+        private final ByteBuffer buffer;
+
+        private int start;
+
+        private int length;
+
+        ByteSequence(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        ByteSequence with(int start, int length) {
+            this.start = start;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            final byte[] bytes = new byte[length];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.gpb.domain.model.GpbOperation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Parsed operations of reports, stored next to the report as {@code <report>.parsed}.
+ * The cache is ignored when the size or modification time of the report has changed
+ */
+final class ParsedReportCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ParsedReportCache.class);
+
+    static final String CACHE_EXT = ".parsed";
+
+    private static final int MAGIC = 0x47504252;
+
+    private static final int VERSION = 5;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte ROW = 1;
+
+    private static final byte END = 0;
+
+    private static final int HOLD = 1;
+
+    private static final int NEGATIVE_ZERO = 2;
+
+    private static final int NULL_STRING = -1;
+
+    private static final int NEW_STRING = -2;
+
+    private ParsedReportCache() {
+    }
+
+    static File cacheFile(File report) {
+        return new File(report.getParentFile(), report.getName() + CACHE_EXT);
+    }
+
+    /**
+     * @return operations of the report or {@code null} if there is no valid cache
+     */
+    static Stream<GpbOperation> read(File report) {
+        final File cache = cacheFile(report);
+        if (!cache.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache.toPath()), BUFFER_SIZE));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Unsupported format of parsed report {}", cache);
+                in.close();
+                return null;
+            }
+            final long size = in.readLong();
+            final long modified = in.readLong();
+            if (size != report.length() || modified != report.lastModified()) {
+                log.info("Report {} has changed since it was parsed, it will be parsed again", report);
+                in.close();
+                return null;
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read parsed report {}, report will be parsed again", cache, e);
+            closeQuietly(in);
+            return null;
+        }
+
+        final Reader reader = new Reader(in);
+        return StreamSupport.stream(reader, false).onClose(reader::close);
+    }
+
+    static Writer writer(File report) throws IOException {
+        return new Writer(report);
+    }
+
+    /**
+     * Writes the cache of the report while the operations are consumed. The cache is completed only if the stream
+     * is consumed to the end, failures of writing are logged and do not affect the parsed operations.
+     */
+    static Stream<GpbOperation> writing(File report, Stream<GpbOperation> operations) {
+        final Writer writer;
+        try {
+            writer = writer(report);
+        } catch (IOException e) {
+            log.warn("Unable to write parsed report {}", cacheFile(report), e);
+            return operations;
+        }
+        final WritingSpliterator spliterator = new WritingSpliterator(operations.spliterator(), writer);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(spliterator::close)
+                .onClose(operations::close);
+    }
+
+    /**
+     * Renames the cache of the report renamed from {@code from} to {@code to}
+     */
+    static void move(File from, File to) throws IOException {
+        final File cache = cacheFile(from);
+        if (cache.isFile()) {
+            Files.move(cache.toPath(), cacheFile(to).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static final class Reader extends Spliterators.AbstractSpliterator<GpbOperation> {
+
+        private final DataInputStream in;
+
+        private final List<String> strings = new ArrayList<>();
+
+        private long rows;
+
+        Reader(DataInputStream in) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.in = in;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super GpbOperation> action) {
+            try {
+                if (in.readByte() == END) {
+                    if (in.readLong() != rows) {
+                        throw new IOException("Parsed report is corrupted, number of rows does not match");
+                    }
+                    return false;
+                }
+                rows++;
+                final long epochSecond = in.readLong();
+                final int nano = in.readInt();
+                final long amount = in.readLong();
+                final String account = readString();
+                final String card = readString();
+                final String currency = readString();
+                final String description = readString();
+                final int flags = in.readByte();
+                action.accept(new GpbOperation(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC),
+                        account, card, amount, currency, description, (flags & HOLD) != 0, (flags & NEGATIVE_ZERO) != 0));
+                return true;
+            } catch (EOFException e) {
+                throw new UncheckedIOException("Parsed report is truncated", e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String readString() throws IOException {
+            final int id = in.readInt();
+            if (id == NULL_STRING) {
+                return null;
+            } else if (id == NEW_STRING) {
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                final String value = new String(bytes, StandardCharsets.UTF_8);
+                strings.add(value);
+                return value;
+            }
+            return strings.get(id);
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static final class WritingSpliterator extends Spliterators.AbstractSpliterator<GpbOperation> {
+
+        private final Spliterator<GpbOperation> operations;
+
+        private Writer writer;
+
+        WritingSpliterator(Spliterator<GpbOperation> operations, Writer writer) {
+            super(operations.estimateSize(), Spliterator.ORDERED | Spliterator.NONNULL);
+            this.operations = operations;
+            this.writer = writer;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super GpbOperation> action) {
+            final boolean advanced = operations.tryAdvance(operation -> {
+                append(operation);
+                action.accept(operation);
+            });
+            if (!advanced && writer != null) {
+                try {
+                    writer.commit();
+                } catch (IOException e) {
+                    log.warn("Unable to write parsed report {}", writer.report, e);
+                    writer.abort();
+                }
+                writer = null;
+            }
+            return advanced;
+        }
+
+        private void append(GpbOperation operation) {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.append(operation);
+            } catch (IOException e) {
+                log.warn("Unable to write parsed report {}", writer.report, e);
+                writer.abort();
+                writer = null;
+            }
+        }
+
+        void close() {
+            if (writer != null) {
+                writer.abort();
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * Writes operations of a report while it is parsed. Not thread-safe.
+     */
+    static final class Writer {
+
+        private final File report;
+
+        private final File tempFile;
+
+        private final DataOutputStream out;
+
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private long rows;
+
+        private Writer(File report) throws IOException {
+            this.report = report;
+            final File cache = cacheFile(report);
+            this.tempFile = Files.createTempFile(cache.getParentFile().toPath(), cache.getName() + ".", ".tmp").toFile();
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath()), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(report.length());
+            out.writeLong(report.lastModified());
+        }
+
+        void append(GpbOperation operation) throws IOException {
+            out.writeByte(ROW);
+            out.writeLong(operation.operationDate().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(operation.operationDate().getNano());
+            out.writeLong(operation.operationAmountMinor());
+            writeString(operation.accountNumber());
+            writeString(operation.cardNumber());
+            writeString(operation.operationCurrency());
+            writeString(operation.description());
+            out.writeByte((operation.hold() ? HOLD : 0) | (operation.negativeZero() ? NEGATIVE_ZERO : 0));
+            rows++;
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(NULL_STRING);
+                return;
+            }
+            final Integer id = ids.get(value);
+            if (id != null) {
+                out.writeInt(id);
+                return;
+            }
+            ids.put(value, ids.size());
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(NEW_STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Completes the cache, all operations of the report must have been appended
+         */
+        void commit() throws IOException {
+            out.writeByte(END);
+            out.writeLong(rows);
+            out.close();
+            Files.move(tempFile.toPath(), cacheFile(report).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        void abort() {
+            try {
+                out.close();
+                Files.deleteIfExists(tempFile.toPath());
+            } catch (IOException e) {
+                log.warn("Unable to delete incomplete parsed report {}", tempFile, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Checkpoints of partially processed reports, stored next to the report as {@code <report>.checkpoint}.
+ * The checkpoint is ignored when the size or modification time of the report has changed
+ */
+final class ReportCheckpoints {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportCheckpoints.class);
+
+    static final String CHECKPOINT_EXT = ".checkpoint";
+
+    private ReportCheckpoints() {
+    }
+
+    static File checkpointFile(File report) {
+        return new File(report.getParentFile(), report.getName() + CHECKPOINT_EXT);
+    }
+
+    /**
+     * @return number of registered rows or 0 if there is no valid checkpoint
+     */
+    static long read(File report) {
+        final File checkpoint = checkpointFile(report);
+        if (!checkpoint.isFile()) {
+            return 0;
+        }
+        try {
+            final String[] values = Files.readString(checkpoint.toPath(), StandardCharsets.US_ASCII).trim().split(" ");
+            final long rows = Long.parseLong(values[0]);
+            final long size = Long.parseLong(values[1]);
+            final long modified = Long.parseLong(values[2]);
+            if (size != report.length() || modified != report.lastModified()) {
+                log.warn("Report {} has changed since the checkpoint, it will be processed from the beginning", report);
+                return 0;
+            }
+            return rows;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read checkpoint {}, report will be processed from the beginning", checkpoint, e);
+            return 0;
+        }
+    }
+
+    static void write(File report, long rows) throws IOException {
+        final File checkpoint = checkpointFile(report);
+        final File tempFile = new File(checkpoint.getParentFile(), checkpoint.getName() + ".tmp");
+        final byte[] content = (rows + " " + report.length() + " " + report.lastModified() + "\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tempFile.toPath(), checkpoint.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void delete(File report) throws IOException {
+        Files.deleteIfExists(checkpointFile(report).toPath());
+    }
+}
@@ -0,0 +1,208 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * SHA-256 hashes of the reports of the directory, kept in {@value #HASHES_FILE} to reject duplicate uploads
+ */
+final class ReportContentHashes {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportContentHashes.class);
+
+    static final String HASHES_FILE = ".report-hashes";
+
+    private final File directory;
+
+    private final File hashesFile;
+
+    private final String reportExt;
+
+    /**
+     * Reports by name, {@code null} until the sidecar file is read
+     */
+    private Map<String, Report> reports;
+
+    /**
+     * Names of the reports by hash, {@code null} if the directory has to be checked again
+     */
+    private Map<String, String> hashes;
+
+    private record Report(String hash, long size, long modified) {
+    }
+
+    ReportContentHashes(File directory, String reportExt) {
+        this.directory = directory;
+        this.hashesFile = new File(directory, HASHES_FILE);
+        this.reportExt = reportExt.toLowerCase();
+    }
+
+    static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not find MessageDigest with algorithm SHA-256", e);
+        }
+    }
+
+    static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @return name of the report with the same content or {@code null} if the hash is added
+     */
+    synchronized String add(String hash, String name) throws IOException {
+        return hashes().putIfAbsent(hash, name);
+    }
+
+    /**
+     * @return name of the report with the content or {@code null} if there is none
+     */
+    synchronized String find(String hash) throws IOException {
+        return hashes().get(hash);
+    }
+
+    synchronized void remove(String hash) {
+        if (hashes != null) {
+            hashes.remove(hash);
+        }
+    }
+
+    /**
+     * Remembers the hash of a report added with {@link #add}, so it is not hashed again
+     */
+    synchronized void saved(File file, String hash) {
+        if (reports != null) {
+            reports.put(file.getName(), new Report(hash, file.length(), file.lastModified()));
+            persist();
+        }
+    }
+
+    /**
+     * Follows the report to its new name, so it is not hashed again
+     */
+    synchronized void moved(File from, File to) {
+        if (reports == null) {
+            return;
+        }
+        final Report report = reports.remove(from.getName());
+        if (report != null) {
+            reports.put(to.getName(), new Report(report.hash(), to.length(), to.lastModified()));
+            if (hashes != null) {
+                hashes.replace(report.hash(), from.getName(), to.getName());
+            }
+            persist();
+        }
+    }
+
+    /**
+     * Forgets the hashes, the directory is checked for changed reports on the next use
+     */
+    synchronized void reset() {
+        hashes = null;
+    }
+
+    /**
+     * Checks the directory for changed reports now
+     */
+    synchronized void update() throws IOException {
+        hashes = null;
+        hashes();
+    }
+
+    private Map<String, String> hashes() throws IOException {
+        if (hashes == null) {
+            if (reports == null) {
+                reports = load();
+            }
+            final Map<String, Report> current = new HashMap<>();
+            final Map<String, String> result = new HashMap<>();
+            final FileFilter filter = pathname -> pathname.isFile() && pathname.getName().toLowerCase().endsWith(reportExt);
+            final File[] files = directory.listFiles(filter);
+            int hashed = 0;
+            if (files != null) {
+                for (File file : files) {
+                    final long size = file.length();
+                    final long modified = file.lastModified();
+                    Report report = reports.get(file.getName());
+                    if (report == null || report.size() != size || report.modified() != modified) {
+                        report = new Report(hash(file), size, modified);
+                        hashed++;
+                    }
+                    current.put(file.getName(), report);
+                    result.putIfAbsent(report.hash(), file.getName());
+                }
+            }
+            final boolean changed = hashed > 0 || !current.keySet().equals(reports.keySet());
+            reports = current;
+            hashes = result;
+            if (changed) {
+                log.info("Hashed {} new or changed of {} reports in {}", hashed, current.size(), directory);
+                persist();
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Line of the sidecar file is {@code <hash> <size> <modified> <name>}
+     */
+    private Map<String, Report> load() {
+        final Map<String, Report> result = new HashMap<>();
+        if (!hashesFile.isFile()) {
+            return result;
+        }
+        try {
+            for (String line : Files.readAllLines(hashesFile.toPath(), StandardCharsets.UTF_8)) {
+                final String[] values = line.split(" ", 4);
+                result.put(values[3], new Report(values[0], Long.parseLong(values[1]), Long.parseLong(values[2])));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read hashes of reports {}, reports will be hashed again", hashesFile, e);
+            result.clear();
+        }
+        return result;
+    }
+
+    private void persist() {
+        final File tempFile = new File(directory, HASHES_FILE + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Report> entry : reports.entrySet()) {
+                    final Report report = entry.getValue();
+                    writer.write(report.hash() + " " + report.size() + " " + report.modified() + " " + entry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile.toPath(), hashesFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to save hashes of reports {}", hashesFile, e);
+        }
+    }
+
+    private static String hash(File file) throws IOException {
+        final MessageDigest digest = digest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return hex(digest);
+    }
+}
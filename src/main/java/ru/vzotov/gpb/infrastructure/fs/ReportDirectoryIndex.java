@@ -0,0 +1,246 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of report files of the directory, listed again only when the directory has been modified
+ */
+final class ReportDirectoryIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportDirectoryIndex.class);
+
+    /**
+     * Safety net for file systems with coarse modification time
+     */
+    private static final long FULL_SCAN_INTERVAL = TimeUnit.HOURS.toNanos(1);
+
+    private static final long STALE = Long.MIN_VALUE;
+
+    private final File directory;
+
+    private final File indexFile;
+
+    private final String reportExt;
+
+    private final String processedExt;
+
+    private final ObjectMapper objectMapper;
+
+    private final TreeMap<String, Instant> processed = new TreeMap<>();
+
+    private final TreeMap<String, Instant> unprocessed = new TreeMap<>();
+
+    private long directoryModified = STALE;
+
+    private long scannedAt;
+
+    private Runnable reindexListener = () -> {
+    };
+
+    private record Snapshot(long directoryModified, List<Entry> reports) {
+    }
+
+    private record Entry(String name, Instant created) {
+    }
+
+    /**
+     * @param indexFile file the index is persisted to, {@code null} to keep the index in memory only
+     */
+    ReportDirectoryIndex(File directory, File indexFile, String reportExt, String processedExt) {
+        this.directory = directory;
+        this.indexFile = indexFile;
+        this.reportExt = reportExt;
+        this.processedExt = processedExt;
+        this.objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        load();
+    }
+
+    /**
+     * @param listener called after every listing of the directory
+     */
+    synchronized void onReindex(Runnable listener) {
+        this.reindexListener = listener;
+    }
+
+    synchronized List<AccountReportId> findAll() {
+        refresh();
+        final TreeMap<String, Instant> all = new TreeMap<>(processed);
+        all.putAll(unprocessed);
+        return all.entrySet().stream()
+                .filter(entry -> entry.getKey().endsWith(reportExt))
+                .map(entry -> new AccountReportId(entry.getKey(), entry.getValue()))
+                .toList();
+    }
+
+    synchronized List<AccountReportId> findUnprocessed() {
+        refresh();
+        return unprocessed.entrySet().stream()
+                .map(entry -> new AccountReportId(entry.getKey(), entry.getValue()))
+                .toList();
+    }
+
+    /**
+     * @return number of unprocessed reports known to the index, the directory is not listed
+     */
+    synchronized int unprocessedCount() {
+        return unprocessed.size();
+    }
+
+    /**
+     * @return creation time of the oldest unprocessed report known to the index or {@code null} if there are none
+     */
+    synchronized Instant oldestUnprocessed() {
+        return unprocessed.values().stream().min(Instant::compareTo).orElse(null);
+    }
+
+    /**
+     * Must be taken before the directory is changed and passed to {@link #added} or {@link #moved} afterwards.
+     */
+    synchronized long stamp() {
+        return directory.lastModified() == directoryModified ? directoryModified : STALE;
+    }
+
+    synchronized AccountReportId added(long stamp, File file) {
+        final Instant created = creationTime(file);
+        put(file.getName(), created);
+        changed(stamp);
+        return new AccountReportId(file.getName(), created);
+    }
+
+    synchronized void moved(long stamp, File from, File to) {
+        processed.remove(from.getName());
+        unprocessed.remove(from.getName());
+        put(to.getName(), creationTime(to));
+        changed(stamp);
+    }
+
+    /**
+     * Directory has changed without adding or removing reports, e.g. a checkpoint has been written
+     */
+    synchronized void touched(long stamp) {
+        changed(stamp);
+    }
+
+    /**
+     * Lists the directory, reports already known keep their creation time, so only new reports are read
+     */
+    synchronized void reindex() {
+        final long modified = directory.lastModified();
+        final String ext = reportExt.toLowerCase();
+        final String[] names = Objects.requireNonNull(directory.list((dir, name) -> name.toLowerCase().endsWith(ext)));
+
+        final Map<String, Instant> known = new HashMap<>(processed);
+        known.putAll(unprocessed);
+        processed.clear();
+        unprocessed.clear();
+        int added = 0;
+        for (String name : names) {
+            Instant created = known.get(name);
+            if (created == null) {
+                created = creationTime(new File(directory, name));
+                added++;
+            }
+            put(name, created);
+        }
+        directoryModified = modified;
+        scannedAt = System.nanoTime();
+        log.info("Indexed {} unprocessed and {} processed reports in {}, {} new",
+                unprocessed.size(), processed.size(), directory.getAbsolutePath(), added);
+        persist();
+        reindexListener.run();
+    }
+
+    private void refresh() {
+        if (directoryModified == STALE
+                || directory.lastModified() != directoryModified
+                || System.nanoTime() - scannedAt > FULL_SCAN_INTERVAL) {
+            reindex();
+        }
+    }
+
+    private void put(String name, Instant created) {
+        if (name.toLowerCase().endsWith(processedExt)) {
+            processed.put(name, created);
+        } else {
+            unprocessed.put(name, created);
+        }
+    }
+
+    static Instant creationTime(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).creationTime().toInstant();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private void changed(long stamp) {
+        // another change may have happened since the stamp was taken, then the directory has to be listed again
+        directoryModified = stamp != STALE && stamp == directoryModified ? directory.lastModified() : STALE;
+        persist();
+    }
+
+    private void load() {
+        if (indexFile == null || !indexFile.isFile()) {
+            return;
+        }
+        try {
+            final Snapshot snapshot = objectMapper.readValue(indexFile, Snapshot.class);
+            snapshot.reports().forEach(entry -> put(entry.name(), entry.created()));
+            directoryModified = snapshot.directoryModified();
+            scannedAt = System.nanoTime();
+        } catch (IOException e) {
+            log.warn("Unable to read index of reports {}, directory will be scanned", indexFile, e);
+            processed.clear();
+            unprocessed.clear();
+            directoryModified = STALE;
+        }
+    }
+
+    private void persist() {
+        if (indexFile == null) {
+            return;
+        }
+
+        // index file may be stored in the directory itself, its own update must not invalidate the index
+        final boolean current = directoryModified != STALE && directory.lastModified() == directoryModified;
+
+        final List<Entry> reports = new ArrayList<>(processed.size() + unprocessed.size());
+        for (Map<String, Instant> map : List.of(processed, unprocessed)) {
+            map.forEach((name, created) -> reports.add(new Entry(name, created)));
+        }
+        try {
+            final File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+            objectMapper.writeValue(tempFile, new Snapshot(directoryModified, reports));
+            Files.move(tempFile.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to save index of reports {}", indexFile, e);
+        }
+
+        if (current) {
+            directoryModified = directory.lastModified();
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+public enum ReportReadMode {
+    /**
+     * Read reports through commons-csv
+     */
+    CSV,
+    /**
+     * Scan bytes of memory-mapped reports, see {@link MappedReportReader}
+     */
+    MAPPED
+}
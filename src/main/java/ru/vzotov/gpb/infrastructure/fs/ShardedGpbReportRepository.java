@@ -0,0 +1,322 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.accounting.domain.model.AccountReport;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.gpb.GazprombankMetrics;
+import ru.vzotov.gpb.domain.model.GpbOperation;
+import ru.vzotov.gpb.domain.model.GpbReportRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Reports kept in several root directories, each of them optionally split into date subdirectories.
+ * Ids are paths relative to the root, prefixed with the index of the root for all roots but the first one
+ */
+public class ShardedGpbReportRepository implements GpbReportRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedGpbReportRepository.class);
+
+    private static final char SEPARATOR = '/';
+
+    private static final char ROOT_SEPARATOR = ':';
+
+    private final List<File> roots;
+
+    private final DateTimeFormatter shardFormat;
+
+    private final int shardDepth;
+
+    private final Function<File, GpbReportRepositoryFiles> shardFactory;
+
+    private final Map<File, Shard> shards = new ConcurrentHashMap<>();
+
+    private GazprombankMetrics metrics = GazprombankMetrics.noop();
+
+    private record Shard(int root, File directory, String prefix, GpbReportRepositoryFiles repository) {
+
+        AccountReportId global(AccountReportId reportId) {
+            return new AccountReportId(global(reportId.name()), reportId.dateUploaded());
+        }
+
+        String global(String name) {
+            final String path = prefix.isEmpty() ? name : prefix + SEPARATOR + name;
+            return root == 0 && rootOf(path) < 0 ? path : String.valueOf(root) + ROOT_SEPARATOR + path;
+        }
+    }
+
+    private record Located(Shard shard, AccountReportId reportId) {
+    }
+
+    /**
+     * @param roots        directories of reports
+     * @param shardPattern pattern of the date subdirectories of the roots, e.g. {@code yyyy/MM},
+     *                     {@code null} if reports are kept in the roots only
+     * @param shardFactory creates the repository of a shard directory
+     */
+    public ShardedGpbReportRepository(List<String> roots, String shardPattern,
+                                      Function<File, GpbReportRepositoryFiles> shardFactory) {
+        Validate.notEmpty(roots);
+        Validate.notNull(shardFactory);
+        this.roots = roots.stream().map(File::new).toList();
+        for (File root : this.roots) {
+            Validate.isTrue(root.isDirectory() && root.canRead(), "Report directory is not readable: ", root);
+        }
+        this.shardFormat = shardPattern == null ? null : DateTimeFormatter.ofPattern(shardPattern);
+        this.shardDepth = shardPattern == null ? 0 : shardPattern.split(String.valueOf(SEPARATOR)).length;
+        this.shardFactory = shardFactory;
+    }
+
+    public void setMetrics(GazprombankMetrics metrics) {
+        this.metrics = Validate.notNull(metrics);
+    }
+
+    /**
+     * @return directories of the shards, roots in the configured order followed by their subdirectories by date
+     */
+    @Override
+    public List<String> shards() {
+        return shardDirectories().stream().map(Shard::directory).map(File::getPath).toList();
+    }
+
+    private List<Shard> shardDirectories() {
+        final List<Shard> result = new ArrayList<>();
+        for (int root = 0; root < roots.size(); root++) {
+            result.add(shard(root, ""));
+            if (shardFormat != null) {
+                collect(root, roots.get(root), "", 0, result);
+            }
+        }
+        return result;
+    }
+
+    private void collect(int root, File directory, String prefix, int depth, List<Shard> result) {
+        final File[] children = directory.listFiles(File::isDirectory);
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children, Comparator.comparing(File::getName));
+        for (File child : children) {
+            final String childPrefix = prefix.isEmpty() ? child.getName() : prefix + SEPARATOR + child.getName();
+            if (depth + 1 < shardDepth) {
+                collect(root, child, childPrefix, depth + 1, result);
+            } else if (isShard(childPrefix)) {
+                result.add(shard(root, childPrefix));
+            }
+        }
+    }
+
+    private boolean isShard(String prefix) {
+        if (prefix.isEmpty()) {
+            return true;
+        }
+        if (shardFormat == null) {
+            return false;
+        }
+        try {
+            shardFormat.parse(prefix);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private File directory(int root, String prefix) {
+        return prefix.isEmpty() ? roots.get(root) : new File(roots.get(root), prefix);
+    }
+
+    private Shard shard(int root, String prefix) {
+        return shards.computeIfAbsent(directory(root, prefix), dir -> {
+            log.info("Open shard {} of reports", dir);
+            final GpbReportRepositoryFiles repository = shardFactory.apply(dir);
+            repository.setContentLookup(hash -> findContent(dir, hash));
+            return new Shard(root, dir, prefix, repository);
+        });
+    }
+
+    private Shard knownShard(String shard) {
+        final Shard result = shards.get(new File(shard));
+        Validate.isTrue(result != null, "Unknown shard of reports: ", shard);
+        return result;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the name of the report does not refer to a shard of a configured root
+     */
+    private Located locate(AccountReportId reportId) {
+        Validate.notNull(reportId);
+        final String name = reportId.name();
+        final int key = rootOf(name);
+        final int root = Math.max(0, key);
+        Validate.isTrue(root < roots.size(), "Invalid name of report: ", name);
+
+        final String path = key < 0 ? name : name.substring(name.indexOf(ROOT_SEPARATOR) + 1);
+        final int separator = path.lastIndexOf(SEPARATOR);
+        final String prefix = separator < 0 ? "" : path.substring(0, separator);
+        final String fileName = path.substring(separator + 1);
+        Validate.isTrue(isShard(prefix) && !fileName.isEmpty(), "Invalid name of report: ", name);
+        Validate.isTrue(directory(root, prefix).isDirectory(), "Report not found: ", name);
+        return new Located(shard(root, prefix), new AccountReportId(fileName, reportId.dateUploaded()));
+    }
+
+    /**
+     * @return index of the root the name starts with or -1 if the name has no root prefix
+     */
+    private static int rootOf(String name) {
+        final int separator = name.indexOf(ROOT_SEPARATOR);
+        if (separator <= 0) {
+            return -1;
+        }
+        for (int i = 0; i < separator; i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Integer.parseInt(name.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return id of a report of another shard with the content or {@code null} if there is none
+     */
+    private String findContent(File directory, String hash) {
+        for (Shard shard : shardDirectories()) {
+            if (shard.directory().equals(directory)) {
+                continue;
+            }
+            try {
+                final String name = shard.repository().findContent(hash);
+                if (name != null) {
+                    return shard.global(name);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return null;
+    }
+    @Override
+    public AccountReport<GpbOperation> find(AccountReportId reportId) {
+        final Located located = locate(reportId);
+        return new AccountReport<>(reportId, located.shard().repository().find(located.reportId()).operations());
+    }
+
+    @Override
+    public Stream<GpbOperation> stream(AccountReportId reportId) {
+        final Located located = locate(reportId);
+        return located.shard().repository().stream(located.reportId());
+    }
+
+    @Override
+    public List<AccountReportId> findAll() {
+        final List<AccountReportId> result = new ArrayList<>();
+        for (Shard shard : shardDirectories()) {
+            shard.repository().findAll().stream().map(shard::global).forEach(result::add);
+        }
+        return result;
+    }
+
+    /**
+     * @return unprocessed reports of all shards, shard by shard in the order of {@link #shards()}
+     */
+    @Override
+    public List<AccountReportId> findUnprocessed() {
+        final List<AccountReportId> result = new ArrayList<>();
+        for (Shard shard : shardDirectories()) {
+            shard.repository().findUnprocessed().stream().map(shard::global).forEach(result::add);
+        }
+        updateBacklog();
+        return result;
+    }
+
+    @Override
+    public List<AccountReportId> findUnprocessed(String shard) {
+        final Shard known = knownShard(shard);
+        final List<AccountReportId> result = known.repository().findUnprocessed().stream().map(known::global).toList();
+        updateBacklog();
+        return result;
+    }
+
+    private void updateBacklog() {
+        int count = 0;
+        Instant oldest = null;
+        for (Shard shard : shards.values()) {
+            count += shard.repository().unprocessedCount();
+            final Instant shardOldest = shard.repository().oldestUnprocessed();
+            if (shardOldest != null && (oldest == null || shardOldest.isBefore(oldest))) {
+                oldest = shardOldest;
+            }
+        }
+        metrics.backlog(count, oldest);
+    }
+
+    /**
+     * Lists the directories of all shards again, picking up reports added or removed bypassing this repository.
+     */
+    public void reindex() {
+        shards.values().forEach(shard -> shard.repository().reindex());
+    }
+
+    @Override
+    public void markProcessed(AccountReportId reportId) {
+        final Located located = locate(reportId);
+        located.shard().repository().markProcessed(located.reportId());
+        updateBacklog();
+    }
+
+    @Override
+    public long committedRows(AccountReportId reportId) {
+        final Located located = locate(reportId);
+        return located.shard().repository().committedRows(located.reportId());
+    }
+
+    @Override
+    public void commitRows(AccountReportId reportId, long rows) {
+        final Located located = locate(reportId);
+        located.shard().repository().commitRows(located.reportId(), rows);
+    }
+
+    @Override
+    public AccountReportId save(String name, InputStream content) throws IOException {
+        Validate.notEmpty(name);
+        Validate.isTrue(name.indexOf(SEPARATOR) < 0 && name.indexOf(File.separatorChar) < 0,
+                "Invalid name of report: ", name);
+
+        for (Shard shard : shardDirectories()) {
+            Validate.isTrue(!shard.repository().contains(name), "Report with this name is already saved in ",
+                    shard.directory());
+        }
+
+        final String prefix = shardFormat == null ? "" : LocalDate.now().format(shardFormat);
+        final File directory = directory(0, prefix);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory of reports " + directory);
+        }
+
+        final Shard shard = shard(0, prefix);
+        final AccountReportId reportId = shard.global(Objects.requireNonNull(shard.repository().save(name, content)));
+        updateBacklog();
+        return reportId;
+    }
+}
@@ -0,0 +1,162 @@
+package ru.vzotov.gpb.application;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import ru.vzotov.accounting.application.AccountReportService;
+import ru.vzotov.gpb.GazprombankConfig;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.Watchable;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountReportGpbWatcherTest {
+
+    private static final Duration DEBOUNCE = Duration.ofMillis(500);
+
+    @TempDir
+    Path directory;
+
+    private AccountReportService service;
+
+    private GazprombankConfig config;
+
+    private AccountReportGpbWatcher watcher;
+
+    @BeforeEach
+    public void setUp() {
+        service = Mockito.mock(AccountReportService.class);
+        config = new GazprombankConfig();
+        config.setPath(directory.toString());
+        config.setWatch(true);
+        config.setWatchDebounce(DEBOUNCE);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (watcher != null) {
+            watcher.destroy();
+        }
+    }
+
+    @Test
+    public void debounceReportBeingWritten() throws Exception {
+        watcher = new AccountReportGpbWatcher(service, config);
+        watcher.afterPropertiesSet();
+
+        final Path report = directory.resolve("report.csv");
+        Files.writeString(report, "Номер счета,Дата операции\n");
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(50);
+            Files.writeString(report, "40817810518370123456,07.03.2021 00:00:00\n", StandardOpenOption.APPEND);
+            Mockito.verify(service, Mockito.never()).processNewReports();
+        }
+
+        Mockito.verify(service, Mockito.timeout(10000)).processNewReports();
+        Thread.sleep(DEBOUNCE.multipliedBy(2).toMillis());
+        Mockito.verify(service, Mockito.times(1)).processNewReports();
+    }
+
+    @Test
+    public void watchNewShardDirectory() throws Exception {
+        config.setShardPattern("yyyy/MM");
+        watcher = new AccountReportGpbWatcher(service, config);
+        watcher.afterPropertiesSet();
+
+        final Path shard = Files.createDirectories(directory.resolve("2024/05"));
+        Files.writeString(shard.resolve("report.csv"), "Номер счета,Дата операции\n");
+        Files.writeString(shard.resolve("report_processed.csv"), "Номер счета,Дата операции\n");
+
+        Mockito.verify(service, Mockito.timeout(10000)).processNewReports();
+        Thread.sleep(DEBOUNCE.multipliedBy(2).toMillis());
+        Mockito.verify(service, Mockito.times(1)).processNewReports();
+    }
+
+    @Test
+    public void rescanOnOverflow() throws Exception {
+        watcher = new AccountReportGpbWatcher(service, config);
+        watcher.open();
+
+        watcher.handle(new OverflowKey(directory));
+
+        Mockito.verify(service, Mockito.timeout(10000)).processNewReports();
+    }
+
+    @Test
+    public void collectEventsWhileProcessing() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(service).processNewReports();
+        watcher = new AccountReportGpbWatcher(service, config);
+        watcher.open();
+
+        watcher.handle(new OverflowKey(directory));
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        // processing is blocked, the events are still handled and requests are coalesced
+        watcher.handle(new OverflowKey(directory));
+        watcher.handle(new OverflowKey(directory));
+        release.countDown();
+
+        Mockito.verify(service, Mockito.timeout(10000).times(2)).processNewReports();
+        Thread.sleep(DEBOUNCE.toMillis());
+        Mockito.verify(service, Mockito.times(2)).processNewReports();
+    }
+
+    private record OverflowKey(Path directory) implements WatchKey {
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+        @Override
+        public List<WatchEvent<?>> pollEvents() {
+            return List.of(new WatchEvent<>() {
+                @Override
+                public Kind<Object> kind() {
+                    return OVERFLOW;
+                }
+
+                @Override
+                public int count() {
+                    return 1;
+                }
+
+                @Override
+                public Object context() {
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public boolean reset() {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public Watchable watchable() {
+            return directory;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.vzotov.banking.domain.model.AccountNumber;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountOrderedExecutorTest {
+
+    private static final AccountNumber FIRST = new AccountNumber("40817810518370000001");
+    private static final AccountNumber SECOND = new AccountNumber("40817810518370000002");
+
+    private final ExecutorService threads = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void submit() throws Exception {
+        final AccountOrderedExecutor executor = new AccountOrderedExecutor(threads, 64);
+        final Queue<String> order = new ConcurrentLinkedQueue<>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<Void> first = executor.submit(Set.of(FIRST), () -> {
+            await(release);
+            order.add("first-1");
+        });
+        final CompletableFuture<Void> firstAgain = executor.submit(Set.of(FIRST), () -> order.add("first-2"));
+        final CompletableFuture<Void> both = executor.submit(Set.of(FIRST, SECOND), () -> order.add("both"));
+
+        // a task sharing no account with the blocked one runs at once
+        final CompletableFuture<Void> none = executor.submit(List.of(), () -> order.add("none"));
+        none.get(10, TimeUnit.SECONDS);
+        assertThat(firstAgain).isNotDone();
+        assertThat(both).isNotDone();
+
+        release.countDown();
+        both.get(10, TimeUnit.SECONDS);
+        assertThat(first).isDone();
+        assertThat(order).containsExactly("none", "first-1", "first-2", "both");
+    }
+
+    @Test
+    public void failedTaskDoesNotBlockAccount() throws Exception {
+        final AccountOrderedExecutor executor = new AccountOrderedExecutor(threads, 1);
+        final CompletableFuture<Void> failed = executor.submit(Set.of(FIRST), () -> {
+            throw new IllegalStateException("failed");
+        });
+        final Queue<String> order = new ConcurrentLinkedQueue<>();
+        executor.submit(Set.of(SECOND), () -> order.add("second")).get(10, TimeUnit.SECONDS);
+
+        assertThat(failed).isCompletedExceptionally();
+        assertThat(order).containsExactly("second");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,55 +1,71 @@
 package ru.vzotov.gpb.application.impl;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import ru.vzotov.accounting.application.AccountNotFoundException;
 import ru.vzotov.accounting.application.AccountReportNotFoundException;
 import ru.vzotov.accounting.application.AccountingService;
 import ru.vzotov.accounting.domain.model.AccountReport;
 import ru.vzotov.accounting.domain.model.AccountReportId;
-import ru.vzotov.accounting.domain.model.AccountReportRepository;
 import ru.vzotov.accounting.domain.model.AccountRepository;
 import ru.vzotov.accounting.domain.model.CardRepository;
 import ru.vzotov.banking.domain.model.Account;
 import ru.vzotov.banking.domain.model.AccountNumber;
 import ru.vzotov.banking.domain.model.BankId;
+import ru.vzotov.banking.domain.model.Card;
+import ru.vzotov.banking.domain.model.CardNumber;
 import ru.vzotov.banking.domain.model.OperationId;
 import ru.vzotov.banking.domain.model.OperationType;
 import ru.vzotov.banking.domain.model.TransactionReference;
 import ru.vzotov.domain.model.Money;
 import ru.vzotov.gpb.GazprombankConfig;
+import ru.vzotov.gpb.GazprombankMetrics;
+import ru.vzotov.gpb.application.BatchAccountingService;
+import ru.vzotov.gpb.application.HoldOperation;
+import ru.vzotov.gpb.application.HoldOperationLookup;
+import ru.vzotov.gpb.application.OperationRegistration;
+import ru.vzotov.gpb.application.TransactionReferenceLookup;
 import ru.vzotov.gpb.domain.model.GpbOperation;
+import ru.vzotov.gpb.domain.model.GpbReportRepository;
 import ru.vzotov.person.domain.model.PersonId;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.Month;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Currency;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 public class AccountReportServiceImplTest {
 
     private static final AccountNumber ACCOUNT_NUMBER = new AccountNumber("40817810518370123456");
     private AccountReportServiceGpb service;
     private AccountReportId reportId;
-    private AccountReportRepository<GpbOperation> reportRepository;
+    private GpbReportRepository reportRepository;
     private AccountingService accountingService;
     private AccountRepository accountRepository;
     private CardRepository cardRepository;
+    private GazprombankConfig config;
 
     @BeforeEach
-    @SuppressWarnings("unchecked")
     public void setUp() throws Exception {
-        reportRepository = (AccountReportRepository<GpbOperation>) Mockito.mock(AccountReportRepository.class);
+        reportRepository = Mockito.mock(GpbReportRepository.class);
         accountingService = Mockito.mock(AccountingService.class);
         accountRepository = Mockito.mock(AccountRepository.class);
         cardRepository = Mockito.mock(CardRepository.class);
 
+        config = new GazprombankConfig();
         service = new AccountReportServiceGpb(reportRepository, accountingService, accountRepository, cardRepository,
-                new GazprombankConfig());
+                config);
         reportId = new AccountReportId("test-1", LocalDate.now().atStartOfDay().toInstant(ZoneOffset.UTC));
 
         List<GpbOperation> operations = Arrays.asList(
@@ -77,6 +93,8 @@ public class AccountReportServiceImplTest {
 
         Mockito.when(reportRepository.find(reportId))
                 .thenReturn(new AccountReport<>(reportId, operations));
+        Mockito.when(reportRepository.stream(reportId))
+                .thenCallRealMethod();
 
         Mockito.when(accountingService.registerOperation(
                 Mockito.any(AccountNumber.class),
@@ -113,4 +131,382 @@ public class AccountReportServiceImplTest {
         );
     }
 
+    @Test
+    public void processNewReportsConcurrently() throws AccountNotFoundException {
+        final AccountReportId secondReportId = new AccountReportId("test-2", LocalDate.now().atStartOfDay().toInstant(ZoneOffset.UTC));
+        Mockito.when(reportRepository.find(secondReportId))
+                .thenReturn(new AccountReport<>(secondReportId, List.of(new GpbOperation(
+                        LocalDateTime.of(2020, Month.APRIL, 1, 10, 0, 0),
+                        ACCOUNT_NUMBER.number(),
+                        null,
+                        -100d,
+                        "RUR",
+                        "Перевод на счет 3",
+                        false
+                ))));
+        Mockito.when(reportRepository.stream(secondReportId))
+                .thenCallRealMethod();
+        Mockito.when(reportRepository.findUnprocessed())
+                .thenReturn(List.of(reportId, secondReportId));
+        config.setParallelism(2);
+
+        service.processNewReports();
+
+        final InOrder inOrder = Mockito.inOrder(accountingService, reportRepository);
+        inOrder.verify(accountingService).registerOperation(
+                Mockito.eq(ACCOUNT_NUMBER), Mockito.eq(LocalDate.of(2020, Month.FEBRUARY, 21)),
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verify(accountingService).registerOperation(
+                Mockito.eq(ACCOUNT_NUMBER), Mockito.eq(LocalDate.of(2020, Month.MARCH, 9)),
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verify(reportRepository).markProcessed(reportId);
+        inOrder.verify(accountingService).registerOperation(
+                Mockito.eq(ACCOUNT_NUMBER), Mockito.eq(LocalDate.of(2020, Month.APRIL, 1)),
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verify(reportRepository).markProcessed(secondReportId);
+    }
+
+    @Test
+    public void processShardsConcurrently() throws AccountNotFoundException {
+        final AccountReportId secondReportId = new AccountReportId("2020/04/test-2.csv", LocalDate.now().atStartOfDay().toInstant(ZoneOffset.UTC));
+        Mockito.when(reportRepository.find(secondReportId))
+                .thenReturn(new AccountReport<>(secondReportId, List.of(new GpbOperation(
+                        LocalDateTime.of(2020, Month.APRIL, 1, 10, 0, 0),
+                        ACCOUNT_NUMBER.number(),
+                        null,
+                        -100d,
+                        "RUR",
+                        "Перевод на счет 3",
+                        false
+                ))));
+        Mockito.when(reportRepository.stream(secondReportId))
+                .thenCallRealMethod();
+        Mockito.when(reportRepository.shards()).thenReturn(List.of("reports", "reports/2020/04"));
+        Mockito.when(reportRepository.findUnprocessed("reports")).thenReturn(List.of(reportId));
+        Mockito.when(reportRepository.findUnprocessed("reports/2020/04")).thenReturn(List.of(secondReportId));
+        config.setShardWorkers(2);
+
+        service.processNewReports();
+
+        Mockito.verify(accountingService).registerOperation(
+                Mockito.eq(ACCOUNT_NUMBER), Mockito.eq(LocalDate.of(2020, Month.APRIL, 1)),
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.verify(reportRepository).markProcessed(reportId);
+        Mockito.verify(reportRepository).markProcessed(secondReportId);
+        Mockito.verify(reportRepository, Mockito.never()).findUnprocessed();
+    }
+
+    @Test
+    public void registerAccountOfTwoShardsOneAfterAnother() throws AccountNotFoundException {
+        final List<AccountReportId> reports = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final AccountReportId id = new AccountReportId(i % 2 + ":2020/04/test-" + i + ".csv",
+                    LocalDate.now().atStartOfDay().toInstant(ZoneOffset.UTC));
+            Mockito.when(reportRepository.find(id))
+                    .thenReturn(new AccountReport<>(id, List.of(new GpbOperation(
+                            LocalDateTime.of(2020, Month.APRIL, 1 + i, 10, 0, 0),
+                            ACCOUNT_NUMBER.number(),
+                            null,
+                            -100d,
+                            "RUR",
+                            "Перевод на счет " + i,
+                            false
+                    ))));
+            Mockito.when(reportRepository.stream(id))
+                    .thenCallRealMethod();
+            reports.add(id);
+        }
+        Mockito.when(reportRepository.shards()).thenReturn(List.of("first", "second"));
+        Mockito.when(reportRepository.findUnprocessed("first")).thenReturn(List.of(reports.get(0), reports.get(2)));
+        Mockito.when(reportRepository.findUnprocessed("second")).thenReturn(List.of(reports.get(1), reports.get(3)));
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        Mockito.when(accountingService.registerOperation(
+                Mockito.any(AccountNumber.class),
+                Mockito.any(LocalDate.class),
+                Mockito.any(TransactionReference.class),
+                Mockito.any(OperationType.class),
+                Mockito.any(Money.class),
+                Mockito.anyString()
+        )).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            inFlight.decrementAndGet();
+            return new OperationId("test-op");
+        });
+        config.setShardWorkers(2);
+        config.setRegistrationThreads(2);
+
+        service.processNewReports();
+
+        Mockito.verify(accountingService, Mockito.times(4)).registerOperation(
+                Mockito.eq(ACCOUNT_NUMBER), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        reports.forEach(id -> Mockito.verify(reportRepository).markProcessed(id));
+        assertThat(maxInFlight).hasValue(1);
+
+        // reports are registered in the order of the shards, whichever report is resolved first
+        final InOrder inOrder = Mockito.inOrder(reportRepository);
+        for (int i : new int[]{0, 2, 1, 3}) {
+            inOrder.verify(reportRepository).markProcessed(reports.get(i));
+        }
+    }
+
+    @Test
+    public void registerReportsConcurrently() throws AccountNotFoundException {
+        final List<AccountReportId> reports = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final AccountReportId id = new AccountReportId("test-" + (i + 2), LocalDate.now().atStartOfDay().toInstant(ZoneOffset.UTC));
+            Mockito.when(reportRepository.find(id))
+                    .thenReturn(new AccountReport<>(id, List.of(new GpbOperation(
+                            LocalDateTime.of(2020, Month.APRIL, 1 + i, 10, 0, 0),
+                            ACCOUNT_NUMBER.number(),
+                            null,
+                            -100d,
+                            "RUR",
+                            "Перевод на счет " + i,
+                            false
+                    ))));
+            Mockito.when(reportRepository.stream(id))
+                    .thenCallRealMethod();
+            reports.add(id);
+        }
+        Mockito.when(reportRepository.findUnprocessed())
+                .thenReturn(reports);
+        config.setParallelism(3);
+        config.setRegistrationThreads(3);
+
+        service.processNewReports();
+
+        final InOrder inOrder = Mockito.inOrder(accountingService, reportRepository);
+        for (int i = 0; i < reports.size(); i++) {
+            inOrder.verify(accountingService).registerOperation(
+                    Mockito.eq(ACCOUNT_NUMBER), Mockito.eq(LocalDate.of(2020, Month.APRIL, 1 + i)),
+                    Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+            inOrder.verify(reportRepository).markProcessed(reports.get(i));
+        }
+    }
+
+    @Test
+    public void processAccountReportInBatches() throws AccountReportNotFoundException, AccountNotFoundException {
+        final BatchAccountingService batchAccountingService = Mockito.mock(BatchAccountingService.class);
+        final List<OperationId> operationIds = List.of(new OperationId("test-op-1"), new OperationId("test-op-2"));
+        Mockito.when(batchAccountingService.registerOperations(Mockito.anyList()))
+                .thenReturn(operationIds);
+        service.setBatchAccountingService(batchAccountingService);
+
+        service.processAccountReport(reportId);
+
+        Mockito.verify(batchAccountingService).registerOperations(List.of(
+                new OperationRegistration(
+                        ACCOUNT_NUMBER,
+                        LocalDate.of(2020, Month.FEBRUARY, 21),
+                        new TransactionReference("e5659291fcc901c7dc5b051505bf35aa"),
+                        OperationType.DEPOSIT,
+                        Money.kopecks(200000),
+                        "Перевод на счет"
+                ),
+                new OperationRegistration(
+                        ACCOUNT_NUMBER,
+                        LocalDate.of(2020, Month.MARCH, 9),
+                        new TransactionReference("384c0abfb32772918e5015a96e5e373a"),
+                        OperationType.WITHDRAW,
+                        Money.rubles(809d),
+                        "Перевод на счет 2"
+                )
+        ));
+        Mockito.verify(batchAccountingService).removeMatchingHoldOperations(operationIds);
+        Mockito.verifyNoInteractions(accountingService);
+        Mockito.verify(reportRepository).markProcessed(reportId);
+    }
+
+    @Test
+    public void metrics() throws AccountReportNotFoundException, AccountNotFoundException {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service.setMetrics(new GazprombankMetrics(registry));
+        config.setSkip(List.of(ACCOUNT_NUMBER.number()));
+
+        service.processAccountReport(reportId);
+        config.setSkip(null);
+        service.processAccountReport(reportId);
+
+        assertThat(registry.get("gpb.report.parse").timer().count()).isEqualTo(2);
+        assertThat(registry.get("gpb.rows.skipped").tag("reason", "skipped-account").counter().count()).isEqualTo(2);
+        assertThat(registry.get("gpb.registration").tag("call", "registerOperation").timer().count()).isEqualTo(2);
+        assertThat(registry.get("gpb.resolution.lookup").tag("cache", "accounts").timer().count()).isEqualTo(1);
+        assertThat(registry.get("gpb.resolution.cache.requests").tag("cache", "accounts").tag("result", "miss")
+                .functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void resumeFromCheckpoint() throws AccountReportNotFoundException, AccountNotFoundException {
+        Mockito.when(reportRepository.committedRows(reportId)).thenReturn(1L);
+        config.setBatchSize(1);
+        config.setCheckpointInterval(1);
+
+        service.processAccountReport(reportId);
+
+        Mockito.verify(accountingService, Mockito.never()).registerOperation(
+                Mockito.any(), Mockito.eq(LocalDate.of(2020, Month.FEBRUARY, 21)),
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        final InOrder inOrder = Mockito.inOrder(accountingService, reportRepository);
+        inOrder.verify(accountingService).registerOperation(
+                Mockito.eq(ACCOUNT_NUMBER), Mockito.eq(LocalDate.of(2020, Month.MARCH, 9)),
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verify(reportRepository).commitRows(reportId, 2);
+        inOrder.verify(reportRepository).markProcessed(reportId);
+    }
+
+    @Test
+    public void skipRegisteredOperations() throws AccountReportNotFoundException, AccountNotFoundException {
+        final TransactionReferenceLookup lookup = Mockito.mock(TransactionReferenceLookup.class);
+        final TransactionReference registered = new TransactionReference("e5659291fcc901c7dc5b051505bf35aa");
+        Mockito.when(lookup.findExisting(Mockito.anyCollection())).thenReturn(Set.of(registered));
+        service.setTransactionReferenceLookup(lookup);
+
+        // nothing is known before the first registration, so the lookup is not needed
+        service.processAccountReport(reportId);
+        Mockito.verifyNoInteractions(lookup);
+        Mockito.verify(accountingService, Mockito.times(2)).registerOperation(
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+
+        service.processAccountReport(reportId);
+        Mockito.verify(lookup).findExisting(Mockito.argThat(references -> references.contains(registered)));
+        Mockito.verify(accountingService, Mockito.times(1)).registerOperation(
+                Mockito.any(), Mockito.any(), Mockito.eq(registered), Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.verify(accountingService, Mockito.times(2)).registerOperation(
+                Mockito.any(), Mockito.any(), Mockito.eq(new TransactionReference("384c0abfb32772918e5015a96e5e373a")),
+                Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void processAccountReportInPipeline() throws AccountReportNotFoundException, AccountNotFoundException {
+        final List<GpbOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            operations.add(new GpbOperation(
+                    LocalDateTime.of(2020, Month.JANUARY, 1, 0, 0).plusDays(i),
+                    i == 40 ? "40817810518370999999" : ACCOUNT_NUMBER.number(),
+                    null,
+                    -1d - i,
+                    "RUR",
+                    "Покупка " + i,
+                    false
+            ));
+        }
+        Mockito.when(reportRepository.find(reportId))
+                .thenReturn(new AccountReport<>(reportId, operations));
+        config.setPipelineResolveThreads(3);
+        config.setPipelineChunkSize(3);
+        config.setPipelineQueueCapacity(1);
+
+        service.processAccountReport(reportId);
+
+        final InOrder inOrder = Mockito.inOrder(accountingService, reportRepository);
+        for (int i = 0; i < 40; i++) {
+            inOrder.verify(accountingService).registerOperation(
+                    Mockito.eq(ACCOUNT_NUMBER), Mockito.eq(LocalDate.of(2020, Month.JANUARY, 1).plusDays(i)),
+                    Mockito.any(), Mockito.any(), Mockito.any(), Mockito.eq("Покупка " + i));
+        }
+        inOrder.verify(reportRepository).commitRows(reportId, 40);
+        Mockito.verify(accountingService, Mockito.times(40)).registerOperation(
+                Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.verify(reportRepository, Mockito.never()).markProcessed(reportId);
+
+        Mockito.when(reportRepository.find(reportId))
+                .thenReturn(new AccountReport<>(reportId, operations.subList(0, 40)));
+        service.processAccountReport(reportId);
+        Mockito.verify(reportRepository).markProcessed(reportId);
+    }
+
+    @Test
+    public void matchHoldOperations() throws AccountReportNotFoundException, AccountNotFoundException {
+        final HoldOperationLookup lookup = Mockito.mock(HoldOperationLookup.class);
+        final OperationId hold = new OperationId("hold-1");
+        final OperationId otherHold = new OperationId("hold-2");
+        Mockito.when(lookup.findHoldOperations(Mockito.anyCollection())).thenReturn(List.of(
+                new HoldOperation(otherHold, ACCOUNT_NUMBER, LocalDate.of(2020, Month.FEBRUARY, 1),
+                        OperationType.WITHDRAW, Money.rubles(809d)),
+                new HoldOperation(hold, ACCOUNT_NUMBER, LocalDate.of(2020, Month.MARCH, 7),
+                        OperationType.WITHDRAW, Money.rubles(809d))
+        ));
+        service.setHoldOperationLookup(lookup);
+
+        service.processAccountReport(reportId);
+
+        Mockito.verify(lookup).findHoldOperations(List.of(ACCOUNT_NUMBER));
+        Mockito.verify(lookup).removeHoldOperations(List.of(hold));
+        Mockito.verify(accountingService, Mockito.never()).removeMatchingHoldOperations(Mockito.any());
+        Mockito.verify(reportRepository).markProcessed(reportId);
+    }
+
+    @Test
+    public void loadHoldsOfChunkAtOnce() throws AccountReportNotFoundException, AccountNotFoundException {
+        final AccountNumber otherAccount = new AccountNumber("40817810518370654321");
+        Mockito.when(accountRepository.find(otherAccount))
+                .thenReturn(new Account(otherAccount,
+                        "ГПБ счет 2", BankId.GAZPROMBANK, Currency.getInstance("RUR"), new PersonId("vzotov")));
+        final List<GpbOperation> operations = new ArrayList<>(reportRepository.find(reportId).operations());
+        operations.add(new GpbOperation(
+                LocalDateTime.of(2020, Month.MARCH, 10, 10, 0, 0),
+                otherAccount.number(),
+                null,
+                -100d,
+                "RUR",
+                "Перевод на счет 3",
+                false
+        ));
+        Mockito.when(reportRepository.find(reportId))
+                .thenReturn(new AccountReport<>(reportId, operations));
+        final HoldOperationLookup lookup = Mockito.mock(HoldOperationLookup.class);
+        Mockito.when(lookup.findHoldOperations(Mockito.anyCollection())).thenReturn(List.of());
+        service.setHoldOperationLookup(lookup);
+
+        service.processAccountReport(reportId);
+
+        Mockito.verify(lookup).findHoldOperations(List.of(ACCOUNT_NUMBER, otherAccount));
+        Mockito.verifyNoMoreInteractions(lookup);
+        Mockito.verify(reportRepository).markProcessed(reportId);
+    }
+
+    @Test
+    public void prefetchLookupsConcurrently() throws AccountReportNotFoundException, AccountNotFoundException {
+        final CardNumber cardNumber = Mockito.mock(CardNumber.class);
+        final Card card = Mockito.mock(Card.class);
+        Mockito.when(card.cardNumber()).thenReturn(cardNumber);
+        Mockito.when(card.issuer()).thenReturn(BankId.GAZPROMBANK);
+        Mockito.when(cardRepository.findByMask("427655******1234")).thenReturn(List.of(card));
+        final Account account = accountRepository.find(ACCOUNT_NUMBER);
+        Mockito.when(accountRepository.findAccountOfCard(Mockito.eq(cardNumber), Mockito.any()))
+                .thenReturn(account);
+        final List<GpbOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            operations.add(new GpbOperation(
+                    LocalDateTime.of(2020, Month.JANUARY, 1 + i % 2, 12, 0),
+                    ACCOUNT_NUMBER.number(),
+                    i == 4 ? null : "427655******1234",
+                    -10d - i,
+                    "RUR",
+                    "Покупка " + i,
+                    false
+            ));
+        }
+        Mockito.when(reportRepository.find(reportId))
+                .thenReturn(new AccountReport<>(reportId, operations));
+        config.setLookupConcurrency(4);
+        config.setLookupPrefetchRows(2);
+        final AccountReportServiceGpb service = new AccountReportServiceGpb(reportRepository, accountingService,
+                accountRepository, cardRepository, config);
+
+        service.processAccountReport(reportId);
+
+        final InOrder inOrder = Mockito.inOrder(accountingService);
+        for (int i = 0; i < 5; i++) {
+            inOrder.verify(accountingService).registerOperation(
+                    Mockito.eq(ACCOUNT_NUMBER), Mockito.eq(LocalDate.of(2020, Month.JANUARY, 1 + i % 2)),
+                    Mockito.any(), Mockito.any(), Mockito.any(), Mockito.eq("Покупка " + i));
+        }
+        Mockito.verify(cardRepository).findByMask("427655******1234");
+        Mockito.verify(accountRepository).findAccountOfCard(cardNumber, LocalDate.of(2020, Month.JANUARY, 1));
+        Mockito.verify(accountRepository).findAccountOfCard(cardNumber, LocalDate.of(2020, Month.JANUARY, 2));
+        Mockito.verify(reportRepository).markProcessed(reportId);
+    }
 }
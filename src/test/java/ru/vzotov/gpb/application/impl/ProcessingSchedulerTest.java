@@ -0,0 +1,99 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProcessingSchedulerTest {
+
+    private static final Duration INTERVAL = Duration.ofMillis(20);
+
+    private ProcessingScheduler scheduler;
+
+    @AfterEach
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void coalesceRequests() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Semaphore finished = new Semaphore(0);
+        scheduler = new ProcessingScheduler(() -> {
+            runs.incrementAndGet();
+            started.countDown();
+            await(release);
+            finished.release();
+        }, INTERVAL, Duration.ofSeconds(1), Duration.ofSeconds(1));
+
+        scheduler.request();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 5; i++) {
+            scheduler.request();
+        }
+        release.countDown();
+
+        assertThat(finished.tryAcquire(2, 10, TimeUnit.SECONDS)).isTrue();
+        assertThat(finished.tryAcquire(200, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(runs).hasValue(2);
+    }
+
+    @Test
+    public void backOffWhileRegistrationIsSlow() throws Exception {
+        final AtomicLong latency = new AtomicLong(Duration.ofSeconds(2).toNanos());
+        final Semaphore finished = new Semaphore(0);
+        scheduler = new ProcessingScheduler(() -> {
+            scheduler.registered(latency.get());
+            finished.release();
+        }, INTERVAL, Duration.ofSeconds(1), Duration.ofSeconds(1));
+
+        scheduler.request();
+        assertThat(finished.tryAcquire(10, TimeUnit.SECONDS)).isTrue();
+        await(() -> scheduler.backoff() == INTERVAL.toNanos());
+
+        latency.set(Duration.ofMillis(1).toNanos());
+        scheduler.request();
+        assertThat(finished.tryAcquire(10, TimeUnit.SECONDS)).isTrue();
+        await(() -> scheduler.backoff() == 0);
+    }
+
+    @Test
+    public void ignoreRequestsAfterClose() throws Exception {
+        final Semaphore finished = new Semaphore(0);
+        scheduler = new ProcessingScheduler(finished::release, INTERVAL, Duration.ofSeconds(1), Duration.ofSeconds(1));
+        scheduler.close();
+
+        scheduler.request();
+        scheduler.request();
+        assertThat(finished.tryAcquire(200, TimeUnit.MILLISECONDS)).isFalse();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+}
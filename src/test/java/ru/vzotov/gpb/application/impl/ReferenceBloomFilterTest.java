@@ -0,0 +1,60 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.DigestUtils;
+import ru.vzotov.banking.domain.model.TransactionReference;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReferenceBloomFilterTest {
+
+    private static TransactionReference reference(int i) {
+        return new TransactionReference(DigestUtils.md5DigestAsHex(("operation " + i).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void mightContain() throws IOException {
+        final ReferenceBloomFilter filter = new ReferenceBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put(reference(i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(filter.mightContain(reference(i))).isTrue();
+        }
+
+        int falsePositives = 0;
+        for (int i = 10_000; i < 20_000; i++) {
+            if (filter.mightContain(reference(i))) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(200);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(bytes));
+        final ReferenceBloomFilter restored = ReferenceBloomFilter.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for (int i = 0; i < 20_000; i++) {
+            assertThat(restored.mightContain(reference(i))).isEqualTo(filter.mightContain(reference(i)));
+        }
+    }
+
+    @Test
+    public void rejectUnknownFormat() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(7);
+        out.writeInt(1);
+        out.writeLong(-1L);
+        assertThatThrownBy(() -> ReferenceBloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))))
+                .isInstanceOf(IOException.class);
+    }
+}
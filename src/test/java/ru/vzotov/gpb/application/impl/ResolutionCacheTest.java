@@ -0,0 +1,54 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResolutionCacheTest {
+
+    @Test
+    public void expiration() {
+        final AtomicLong time = new AtomicLong();
+        final AtomicInteger loads = new AtomicInteger();
+        final ResolutionCache<String, String> cache = new ResolutionCache<>("test", 10, Duration.ofNanos(100), time::get);
+
+        assertThat(cache.get("a", key -> key + loads.incrementAndGet())).isEqualTo("a1");
+        time.addAndGet(99);
+        assertThat(cache.get("a", key -> key + loads.incrementAndGet())).isEqualTo("a1");
+        time.addAndGet(1);
+        assertThat(cache.get("a", key -> key + loads.incrementAndGet())).isEqualTo("a2");
+
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isEqualTo(2);
+    }
+
+    @Test
+    public void maximumSize() {
+        final ResolutionCache<Integer, Integer> cache = new ResolutionCache<>("test", 2, Duration.ofMinutes(1));
+        cache.get(1, key -> key);
+        cache.get(2, key -> key);
+        cache.get(1, key -> key);
+        cache.get(3, key -> key);
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get(1, key -> -key)).isEqualTo(1);
+        assertThat(cache.get(2, key -> -key)).isEqualTo(-2);
+    }
+
+    @Test
+    public void missingValuesAreNotCached() {
+        final AtomicInteger loads = new AtomicInteger();
+        final ResolutionCache<String, String> cache = new ResolutionCache<>("test", 10, Duration.ofMinutes(1));
+        assertThat(cache.get("a", key -> {
+            loads.incrementAndGet();
+            return null;
+        })).isNull();
+        assertThat(cache.get("a", key -> key)).isEqualTo("a");
+        assertThat(loads).hasValue(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+}
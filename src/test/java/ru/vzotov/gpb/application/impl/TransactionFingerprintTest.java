@@ -0,0 +1,55 @@
+package ru.vzotov.gpb.application.impl;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionFingerprintTest {
+
+    private static String expected(LocalDateTime date, String account, long amountMinor, String description) {
+        return DigestUtils.md5DigestAsHex((date.toString() + "_" + account + "_" + Double.toString(amountMinor / 100d)
+                + "_" + description).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void check(LocalDateTime date, String account, long amountMinor, String description) {
+        assertThat(TransactionFingerprint.transactionId(date, account, amountMinor, description))
+                .as("%s %s %s %s", date, account, amountMinor, description)
+                .isEqualTo(expected(date, account, amountMinor, description));
+    }
+
+    @Test
+    public void transactionId() {
+        assertThat(TransactionFingerprint.transactionId(LocalDateTime.of(2020, 2, 21, 20, 0, 31),
+                "40817810518370123456", 200000L, "Перевод на счет"))
+                .isEqualTo("e5659291fcc901c7dc5b051505bf35aa");
+
+        final LocalDateTime date = LocalDateTime.of(2021, 3, 7, 0, 0, 0);
+        for (long amount : new long[]{0, 1, -10, 100, 999_999_999, -999_999_999, 1_000_000_000, -1_000_000_000,
+                12_345_678_950L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            check(date, "40817810518370123456", amount, "Проценты");
+        }
+        for (LocalDateTime dateTime : new LocalDateTime[]{date, date.withSecond(5), date.withNano(1_000_000),
+                date.withNano(1000), date.withNano(1), LocalDateTime.of(999, 1, 1, 0, 0), LocalDateTime.of(10000, 1, 1, 0, 0)}) {
+            check(dateTime, "40817810518370123456", 100, "Проценты");
+        }
+        assertThat(TransactionFingerprint.transactionId(date, "40817810518370123456", 0, true, "Проценты"))
+                .isEqualTo(DigestUtils.md5DigestAsHex((date + "_40817810518370123456_" + Double.toString(-0d) + "_Проценты")
+                        .getBytes(StandardCharsets.UTF_8)));
+        assertThat(TransactionFingerprint.transactionId(date, "40817810518370123456", -100, true, "Проценты"))
+                .isEqualTo(expected(date, "40817810518370123456", -100, "Проценты"));
+        check(date, "40817810518370123456", 100, null);
+        check(date, "40817810518370123456", 100, "emoji 😀, unpaired \uD83D and \uDE00, € ".repeat(20));
+
+        final Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            final long cents = random.nextLong(2_000_000_000L) - 1_000_000_000L;
+            check(date.plusSeconds(random.nextInt(100_000_000)), "4081781051837012345" + random.nextInt(10),
+                    i % 2 == 0 ? cents : cents * random.nextInt(1000), "Покупка " + i);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ru.vzotov.gpb.domain.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ColumnarGpbReportTest {
+
+    @Test
+    public void operations() {
+        final List<GpbOperation> operations = List.of(
+                new GpbOperation(LocalDateTime.of(2021, 3, 7, 15, 20, 40), "40817810518370123456", null,
+                        -4657.48d, "RUR", "Перевод", false),
+                new GpbOperation(LocalDateTime.of(2021, 3, 1, 0, 0, 0), new String("40817810518370123456"), null,
+                        0.04d, "RUR", new String("Перевод"), false),
+                new GpbOperation(LocalDateTime.of(2020, 2, 17, 12, 11, 7, 500), null, "424917******1234",
+                        3000d, "RUR", "ИЗМЕНЕНИЕ БАЛАНСА", true),
+                new GpbOperation(LocalDateTime.of(1969, 12, 31, 23, 59, 59), null, "424917******1234",
+                        Long.MAX_VALUE, "USD", "", false),
+                new GpbOperation(LocalDateTime.of(2020, 1, 1, 0, 0, 0), "40817810518370123456", null,
+                        1L, "RUR", "Проценты", false),
+                new GpbOperation(LocalDateTime.of(2020, 1, 1, 0, 0, 0), "40817810518370123456", null,
+                        -0d, "RUR", "Проценты", false)
+        );
+
+        final ColumnarGpbReport report = operations.stream().collect(ColumnarGpbReport.collector());
+
+        assertThat(report.size()).isEqualTo(6);
+        assertThat(report.asList()).containsExactlyElementsOf(operations);
+        assertThat(report.amountMinor(0)).isEqualTo(-465748L);
+        assertThat(report.accountNumber(1)).isSameAs(report.accountNumber(0));
+        assertThat(report.description(1)).isSameAs(report.description(0));
+        assertThat(report.amountMinor(3)).isEqualTo(Long.MAX_VALUE);
+        assertThat(report.get(4).operationAmount()).isEqualTo(0.01d);
+        assertThat(report.amountMinor(5)).isZero();
+        assertThatThrownBy(() -> report.get(6)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+}
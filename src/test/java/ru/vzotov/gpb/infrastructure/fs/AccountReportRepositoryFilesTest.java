@@ -1,18 +1,32 @@
 package ru.vzotov.gpb.infrastructure.fs;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.vzotov.accounting.domain.model.AccountReport;
 import ru.vzotov.accounting.domain.model.AccountReportId;
 import ru.vzotov.gpb.domain.model.GpbOperation;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
 public class AccountReportRepositoryFilesTest {
 
@@ -59,4 +73,381 @@ public class AccountReportRepositoryFilesTest {
         assertThat(operations).hasSize(18);
     }
 
+    @Test
+    public void stream() {
+        File resourcesDirectory = new File("src/test/resources/account-reports");
+        GpbReportRepositoryFiles repo = new GpbReportRepositoryFiles(resourcesDirectory.getAbsolutePath());
+        for (AccountReportId id : repo.findAll()) {
+            final List<GpbOperation> expected = repo.find(id).operations();
+            try (Stream<GpbOperation> operations = repo.stream(id)) {
+                assertThat(operations).containsExactlyElementsOf(expected);
+            }
+        }
+    }
+
+    @Test
+    public void index(@TempDir Path directory) throws IOException {
+        final File indexFile = directory.resolve("index.json").toFile();
+        final File reports = Files.createDirectory(directory.resolve("reports")).toFile();
+        GpbReportRepositoryFiles repo = new GpbReportRepositoryFiles(reports.getAbsolutePath(), indexFile.getAbsolutePath());
+        assertThat(repo.findUnprocessed()).isEmpty();
+
+        final AccountReportId saved = repo.save("report_1.csv", new ByteArrayInputStream(new byte[0]));
+        assertThat(repo.findUnprocessed()).containsExactly(saved);
+
+        repo.markProcessed(saved);
+        assertThat(repo.findUnprocessed()).isEmpty();
+        assertThat(repo.findAll()).extracting(AccountReportId::name).containsExactly("report_1_processed.csv");
+
+        Files.writeString(reports.toPath().resolve("report_2.csv"), "");
+        assertThat(reports.setLastModified(System.currentTimeMillis() + 10_000)).isTrue();
+        assertThat(repo.findUnprocessed()).extracting(AccountReportId::name).containsExactly("report_2.csv");
+
+        assertThat(indexFile).isFile();
+        repo = new GpbReportRepositoryFiles(reports.getAbsolutePath(), indexFile.getAbsolutePath());
+        final List<AccountReportId> all = repo.findAll();
+        assertThat(all).extracting(AccountReportId::name)
+                .containsExactly("report_1_processed.csv", "report_2.csv");
+
+        // known reports are kept as indexed, removed ones are dropped
+        Files.delete(reports.toPath().resolve("report_2.csv"));
+        assertThat(reports.setLastModified(System.currentTimeMillis() + 20_000)).isTrue();
+        assertThat(repo.findUnprocessed()).isEmpty();
+        assertThat(repo.findAll()).containsExactly(all.get(0));
+    }
+
+    @Test
+    public void mappedReadMode() {
+        File resourcesDirectory = new File("src/test/resources/account-reports");
+        GpbReportRepositoryFiles csv = new GpbReportRepositoryFiles(resourcesDirectory.getAbsolutePath());
+        GpbReportRepositoryFiles mapped = new GpbReportRepositoryFiles(resourcesDirectory.getAbsolutePath());
+        mapped.setReadMode(ReportReadMode.MAPPED);
+        for (AccountReportId id : csv.findAll()) {
+            assertThat(mapped.find(id).operations()).containsExactlyElementsOf(csv.find(id).operations());
+        }
+    }
+
+    @Test
+    public void mappedReadModeQuotedFields(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("report.csv"), "\uFEFFНомер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\r\n"
+                + "40817810518370123456,07.03.2021 00:00:00,\"Перевод, \"\"Домашний банк\"\"\nвторая строка\",,\"-4657,48\",RUB,,Исполнено\r\n"
+                + "\r\n"
+                + "40817810518370123456,01.03.2021 00:00:00,Проценты,\"0,04\",,RUR,,Исполнено");
+        GpbReportRepositoryFiles repo = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+        repo.setReadMode(ReportReadMode.MAPPED);
+        List<GpbOperation> operations = repo.find(repo.findAll().get(0)).operations();
+        assertThat(operations).containsExactly(
+                new GpbOperation(LocalDateTime.of(2021, 3, 7, 0, 0, 0), "40817810518370123456", null,
+                        -4657.48d, "RUR", "Перевод, \"Домашний банк\"\nвторая строка", false),
+                new GpbOperation(LocalDateTime.of(2021, 3, 1, 0, 0, 0), "40817810518370123456", null,
+                        0.04d, "RUR", "Проценты", false)
+        );
+        assertThat(operations.get(0).accountNumber()).isSameAs(operations.get(1).accountNumber());
+    }
+
+    @Test
+    public void mappedReadModeMalformedQuoting(@TempDir Path directory) throws IOException {
+        final String header = "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n";
+        final String valid = "40817810518370123456,01.03.2021 00:00:00,Проценты,\"0,04\",,RUR,,Исполнено\n";
+        for (String malformed : new String[]{
+                "40817810518370123456,07.03.2021 00:00:00,\"Покупка\"!,,\"-1,00\",RUB,,Исполнено\n",
+                "40817810518370123456,07.03.2021 00:00:00,\"Покупка\" x,,\"-1,00\",RUB,,Исполнено\n",
+                "40817810518370123456,07.03.2021 00:00:00,\"Покупка\n,,\"-1,00\",RUB,,Исполнено\n",
+                "40817810518370123456,07.03.2021 00:00:00,Покупка,,\"-1,00"}) {
+            Files.writeString(directory.resolve("report.csv"), header + valid + malformed);
+            GpbReportRepositoryFiles csv = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+            GpbReportRepositoryFiles mapped = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+            mapped.setReadMode(ReportReadMode.MAPPED);
+            AccountReportId id = csv.findAll().get(0);
+
+            Throwable expected = catchThrowable(() -> csv.find(id));
+            assertThat(expected).as(malformed).isNotNull();
+            assertThatThrownBy(() -> mapped.find(id))
+                    .as(malformed)
+                    .isInstanceOf(expected.getClass())
+                    .hasMessage(expected.getMessage());
+        }
+    }
+
+    @Test
+    public void mappedReadModeSpaceAfterQuote(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("report.csv"), "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n"
+                + "40817810518370123456,07.03.2021 00:00:00,\"Покупка\" \t,,\"-1,00\"  ,RUB,,Исполнено\n");
+        GpbReportRepositoryFiles csv = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+        GpbReportRepositoryFiles mapped = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+        mapped.setReadMode(ReportReadMode.MAPPED);
+        AccountReportId id = csv.findAll().get(0);
+        assertThat(mapped.find(id).operations()).containsExactlyElementsOf(csv.find(id).operations());
+    }
+
+    @Test
+    public void groupedAmountsInEveryReadMode(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("report.csv"), "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n"
+                + "40817810518370123456,07.03.2021 00:00:00,Зарплата,\"1 234,56\",,RUB,,Исполнено\n"
+                + "40817810518370123456,06.03.2021 00:00:00,Покупка,,\"-12 345 678,00\",RUB,,Исполнено\n"
+                + "40817810518370123456,05.03.2021 00:00:00,Покупка,,-1 000,RUB,,Исполнено\n");
+        for (ReportReadMode mode : ReportReadMode.values()) {
+            GpbReportRepositoryFiles repo = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+            repo.setReadMode(mode);
+            assertThat(repo.find(repo.findAll().get(0)).operations())
+                    .as(mode.name())
+                    .extracting(GpbOperation::operationAmountMinor)
+                    .containsExactly(123456L, -1234567800L, -100000L);
+        }
+    }
+
+    @Test
+    public void checkpoint(@TempDir Path directory) throws IOException {
+        final Path report = directory.resolve("report.csv");
+        Files.writeString(report, "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n");
+        GpbReportRepositoryFiles repo = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+        AccountReportId id = repo.findAll().get(0);
+        assertThat(repo.committedRows(id)).isZero();
+
+        repo.commitRows(id, 10);
+        repo.commitRows(id, 20);
+        assertThat(repo.committedRows(id)).isEqualTo(20);
+        assertThat(repo.findUnprocessed()).containsExactly(id);
+
+        repo.markProcessed(id);
+        assertThat(directory.resolve("report.csv" + ReportCheckpoints.CHECKPOINT_EXT)).doesNotExist();
+
+        Files.writeString(report, "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n");
+        repo.reindex();
+        repo.commitRows(id, 10);
+        Files.writeString(report, "\n", StandardOpenOption.APPEND);
+        assertThat(repo.committedRows(id)).isZero();
+    }
+
+    @Test
+    public void parsedCache(@TempDir Path directory) throws IOException {
+        final Path report = directory.resolve("report.csv");
+        Files.writeString(report, "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n"
+                + "40817810518370123456,07.03.2021 00:00:00,\"Перевод \"\"Домашний банк\"\"\",,\"-4657,48\",RUB,,Исполнено\n"
+                + "40817810518370123456,06.03.2021 00:00:00,Покупка,,\"-100,00\",RUB,,Исполнено\n");
+        final Path cache = directory.resolve("report.csv" + ParsedReportCache.CACHE_EXT);
+        GpbReportRepositoryFiles repo = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+        AccountReportId id = repo.findAll().get(0);
+        List<GpbOperation> expected = repo.find(id).operations();
+        assertThat(cache).doesNotExist();
+
+        repo.setParsedCache(true);
+        try (Stream<GpbOperation> operations = repo.stream(id)) {
+            assertThat(operations.limit(1)).hasSize(1);
+        }
+        assertThat(cache).doesNotExist();
+        assertThat(repo.find(id).operations()).containsExactlyElementsOf(expected);
+        assertThat(cache).exists();
+
+        // the cache is read instead of the report while the size and modification time are the same
+        final FileTime modified = Files.getLastModifiedTime(report);
+        Files.writeString(report, Files.readString(report).replace("Покупка", "Возврат"));
+        Files.setLastModifiedTime(report, modified);
+        assertThat(repo.find(id).operations()).containsExactlyElementsOf(expected);
+        assertThat(repo.findUnprocessed()).containsExactly(id);
+
+        Files.writeString(report, "\n", StandardOpenOption.APPEND);
+        List<GpbOperation> changed = repo.find(id).operations();
+        assertThat(changed).hasSize(2);
+        assertThat(changed.get(1).description()).isEqualTo("Возврат");
+        assertThat(repo.find(id).operations()).containsExactlyElementsOf(changed);
+
+        // concurrent readers of the report write separate temporary files
+        Files.delete(cache);
+        try (Stream<GpbOperation> first = repo.stream(id); Stream<GpbOperation> second = repo.stream(id)) {
+            final Iterator<GpbOperation> firstRows = first.iterator();
+            final Iterator<GpbOperation> secondRows = second.iterator();
+            while (firstRows.hasNext()) {
+                firstRows.next();
+                secondRows.next();
+            }
+            assertThat(secondRows.hasNext()).isFalse();
+        }
+        assertThat(repo.find(id).operations()).containsExactlyElementsOf(changed);
+
+        // the cache follows the report to the archive and is read when the processed report is read again
+        repo.markProcessed(id);
+        assertThat(cache).doesNotExist();
+        final Path processed = directory.resolve("report_processed.csv");
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).extracting(path -> path.getFileName().toString())
+                    .containsExactlyInAnyOrder("report_processed.csv", "report_processed.csv" + ParsedReportCache.CACHE_EXT);
+        }
+        final FileTime processedModified = Files.getLastModifiedTime(processed);
+        Files.writeString(processed, Files.readString(processed).replace("Возврат", "Покупка"));
+        Files.setLastModifiedTime(processed, processedModified);
+        final AccountReportId processedId = repo.findAll().get(0);
+        assertThat(processedId.name()).isEqualTo("report_processed.csv");
+        assertThat(repo.find(processedId).operations()).containsExactlyElementsOf(changed);
+    }
+
+    @Test
+    public void validateUploads(@TempDir Path directory) throws IOException {
+        final String header = "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n";
+        final String report = header
+                + "40817810518370123456,07.03.2021 00:00:00,Перевод,,\"-4657,48\",RUB,,Исполнено\n";
+        Files.writeString(directory.resolve("old_processed.csv"), report);
+        GpbReportRepositoryFiles repo = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+        repo.setValidateUploads(true);
+
+        assertThatThrownBy(() -> repo.save("duplicate.csv", new ByteArrayInputStream(report.getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("old_processed.csv");
+        assertThatThrownBy(() -> repo.save("header.csv", new ByteArrayInputStream(
+                "Номер счета,Дата операции\n".getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> repo.save("row.csv", new ByteArrayInputStream((header
+                + "40817810518370123456,07.03.2021,Перевод,,\"-4657,48\",RUB,,Исполнено\n").getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("row 1");
+        assertThat(repo.findUnprocessed()).isEmpty();
+
+        final String other = report.replace("Перевод", "Покупка");
+        final AccountReportId saved = repo.save("new.csv", new ByteArrayInputStream(other.getBytes(StandardCharsets.UTF_8)));
+        assertThat(repo.findUnprocessed()).containsExactly(saved);
+        assertThat(directory.resolve("new.csv")).hasContent(other);
+        assertThatThrownBy(() -> repo.save("again.csv", new ByteArrayInputStream(other.getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("new.csv");
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).extracting(path -> path.getFileName().toString())
+                    .containsExactlyInAnyOrder("old_processed.csv", "new.csv", ReportContentHashes.HASHES_FILE);
+        }
+
+        // hashes survive a restart, only changed reports are hashed again
+        repo.markProcessed(saved);
+        Files.writeString(directory.resolve("old_processed.csv"), report.replace("Перевод", "Возврат"));
+        final GpbReportRepositoryFiles restarted = new GpbReportRepositoryFiles(directory.toAbsolutePath().toString());
+        restarted.setValidateUploads(true);
+        assertThatThrownBy(() -> restarted.save("again.csv", new ByteArrayInputStream(other.getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("new_processed.csv");
+        restarted.save("first.csv", new ByteArrayInputStream(report.getBytes(StandardCharsets.UTF_8)));
+        assertThat(Files.readAllLines(directory.resolve(ReportContentHashes.HASHES_FILE)))
+                .hasSize(3)
+                .anyMatch(line -> line.endsWith(" new_processed.csv"));
+
+        // reports added bypassing the repository are hashed when indexed
+        Files.writeString(directory.resolve("external.csv"), report.replace("Перевод", "Пополнение"));
+        restarted.reindex();
+        assertThat(Files.readAllLines(directory.resolve(ReportContentHashes.HASHES_FILE)))
+                .hasSize(4)
+                .anyMatch(line -> line.endsWith(" external.csv"));
+
+        // a file left by an interrupted upload does not block the name
+        Files.writeString(directory.resolve("stale.csv.upload"), "partial");
+        restarted.save("stale.csv", new ByteArrayInputStream(report.replace("Перевод", "Снятие").getBytes(StandardCharsets.UTF_8)));
+        assertThat(directory.resolve("stale.csv")).exists();
+    }
+
+    @Test
+    public void shardedRepository(@TempDir Path directory) throws IOException {
+        final String report = "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n"
+                + "40817810518370123456,07.03.2021 00:00:00,Перевод,,\"-4657,48\",RUB,,Исполнено\n";
+        final Path first = directory.resolve("first");
+        final Path second = directory.resolve("second");
+        for (Path file : List.of(first.resolve("legacy.csv"), first.resolve("2024/05/may.csv"),
+                first.resolve("2024/04/april.csv"), first.resolve("misc/ignored.csv"), second.resolve("2024/05/other.csv"))) {
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, report);
+        }
+        final ShardedGpbReportRepository repo = new ShardedGpbReportRepository(
+                List.of(first.toString(), second.toString()), "yyyy/MM",
+                shard -> new GpbReportRepositoryFiles(shard.getPath()));
+
+        assertThat(repo.shards()).containsExactly(first.toString(), first.resolve("2024/04").toString(),
+                first.resolve("2024/05").toString(), second.toString(), second.resolve("2024/05").toString());
+        assertThat(repo.findUnprocessed()).extracting(AccountReportId::name)
+                .containsExactly("legacy.csv", "2024/04/april.csv", "2024/05/may.csv", "1:2024/05/other.csv");
+        assertThat(repo.findUnprocessed(second.resolve("2024/05").toString())).extracting(AccountReportId::name)
+                .containsExactly("1:2024/05/other.csv");
+
+        final AccountReportId other = repo.findUnprocessed(second.resolve("2024/05").toString()).get(0);
+        try (Stream<GpbOperation> operations = repo.stream(other)) {
+            assertThat(operations).extracting(GpbOperation::description).containsExactly("Перевод");
+        }
+        final AccountReportId may = repo.findUnprocessed().get(2);
+        repo.markProcessed(may);
+        assertThat(first.resolve("2024/05/may_processed.csv")).isRegularFile();
+        assertThat(repo.findUnprocessed()).extracting(AccountReportId::name)
+                .containsExactly("legacy.csv", "2024/04/april.csv", "1:2024/05/other.csv");
+
+        final String month = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy/MM"));
+        final AccountReportId saved = repo.save("new.csv", new ByteArrayInputStream(report.getBytes(StandardCharsets.UTF_8)));
+        assertThat(saved.name()).isEqualTo(month + "/new.csv");
+        assertThat(first.resolve(month).resolve("new.csv")).hasContent(report);
+        assertThat(repo.findUnprocessed()).extracting(AccountReportId::name).contains(month + "/new.csv");
+        for (String invalid : List.of("../second/legacy.csv", "0:../second/legacy.csv", "2:legacy.csv", "1:legacy.csv")) {
+            assertThatThrownBy(() -> repo.stream(new AccountReportId(invalid, saved.dateUploaded())))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void rejectUploadsSavedInAnyShard(@TempDir Path directory) throws IOException {
+        final String header = "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n";
+        final String april = header + "40817810518370123456,07.04.2024 00:00:00,Перевод,,\"-1,00\",RUB,,Исполнено\n";
+        final String other = header + "40817810518370123456,07.05.2024 00:00:00,Покупка,,\"-2,00\",RUB,,Исполнено\n";
+        final Path first = directory.resolve("first");
+        final Path second = directory.resolve("second");
+        Files.createDirectories(first.resolve("2024/04"));
+        Files.createDirectories(second.resolve("2024/05"));
+        Files.writeString(first.resolve("2024/04/april_processed.csv"), april);
+        Files.writeString(second.resolve("2024/05/other.csv"), other);
+        final ShardedGpbReportRepository repo = new ShardedGpbReportRepository(
+                List.of(first.toString(), second.toString()), "yyyy/MM", shard -> {
+            final GpbReportRepositoryFiles files = new GpbReportRepositoryFiles(shard.getPath());
+            files.setValidateUploads(true);
+            return files;
+        });
+
+        assertThatThrownBy(() -> repo.save("april.csv", new ByteArrayInputStream(other.getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("already saved");
+        assertThatThrownBy(() -> repo.save("other.csv", new ByteArrayInputStream(april.getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("already saved");
+        assertThatThrownBy(() -> repo.save("copy.csv", new ByteArrayInputStream(april.getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("2024/04/april_processed.csv");
+        assertThatThrownBy(() -> repo.save("copy.csv", new ByteArrayInputStream(other.getBytes(StandardCharsets.UTF_8))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("1:2024/05/other.csv");
+        assertThat(repo.findUnprocessed()).extracting(AccountReportId::name).containsExactly("1:2024/05/other.csv");
+
+        final String month = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy/MM"));
+        final String fresh = other.replace("Покупка", "Возврат");
+        assertThat(repo.save("copy.csv", new ByteArrayInputStream(fresh.getBytes(StandardCharsets.UTF_8))).name())
+                .isEqualTo(month + "/copy.csv");
+    }
+
+    @Test
+    public void sameReportNameInTwoRoots(@TempDir Path directory) throws IOException {
+        final String header = "Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус\n";
+        final Path first = directory.resolve("first");
+        final Path second = directory.resolve("second");
+        Files.createDirectories(first);
+        Files.createDirectories(second);
+        Files.writeString(first.resolve("report.csv"),
+                header + "40817810518370123456,07.03.2021 00:00:00,Первый,,\"-1,00\",RUB,,Исполнено\n");
+        Files.writeString(second.resolve("report.csv"),
+                header + "40817810518370123456,07.03.2021 00:00:00,Второй,,\"-2,00\",RUB,,Исполнено\n");
+        final ShardedGpbReportRepository repo = new ShardedGpbReportRepository(
+                List.of(first.toString(), second.toString()), null,
+                shard -> new GpbReportRepositoryFiles(shard.getPath()));
+
+        final List<AccountReportId> unprocessed = repo.findUnprocessed();
+        assertThat(unprocessed).extracting(AccountReportId::name).containsExactly("report.csv", "1:report.csv");
+        try (Stream<GpbOperation> operations = repo.stream(unprocessed.get(1))) {
+            assertThat(operations).extracting(GpbOperation::description).containsExactly("Второй");
+        }
+
+        repo.markProcessed(unprocessed.get(1));
+        assertThat(second.resolve("report_processed.csv")).isRegularFile();
+        assertThat(first.resolve("report.csv")).isRegularFile();
+        assertThat(repo.findUnprocessed()).extracting(AccountReportId::name).containsExactly("report.csv");
+        try (Stream<GpbOperation> operations = repo.stream(unprocessed.get(0))) {
+            assertThat(operations).extracting(GpbOperation::description).containsExactly("Первый");
+        }
+    }
 }
@@ -0,0 +1,135 @@
+package ru.vzotov.gpb.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+import ru.vzotov.gpb.domain.model.GpbOperation;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class GpbOperationDecoderTest {
+
+    @Test
+    public void parseAmountMinor() {
+        assertThat(GpbOperationDecoder.parseAmountMinor("-4657,48")).isEqualTo(-465748L);
+        assertThat(GpbOperationDecoder.parseAmountMinor("0,04")).isEqualTo(4L);
+        assertThat(GpbOperationDecoder.parseAmountMinor("0,1")).isEqualTo(10L);
+        assertThat(GpbOperationDecoder.parseAmountMinor("3000")).isEqualTo(300000L);
+        assertThat(GpbOperationDecoder.parseAmountMinor("12,500")).isEqualTo(1250L);
+        assertThat(GpbOperationDecoder.parseAmountMinor("1 234,56")).isEqualTo(123456L);
+        assertThat(GpbOperationDecoder.parseAmountMinor("-1\u00a0234\u00a0567,8")).isEqualTo(-123456780L);
+        assertThat(GpbOperationDecoder.parseAmountMinor("")).isEqualTo(GpbOperationDecoder.NO_AMOUNT);
+        assertThat(GpbOperationDecoder.parseAmountMinor(null)).isEqualTo(GpbOperationDecoder.NO_AMOUNT);
+        assertThat(GpbOperationDecoder.parseAmountMinor(" ")).isEqualTo(GpbOperationDecoder.NO_AMOUNT);
+        for (String malformed : new String[]{"abc", "12abc", "-", "1,2,3"}) {
+            assertThatThrownBy(() -> GpbOperationDecoder.parseAmountMinor(malformed))
+                    .as(malformed)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+        assertThatThrownBy(() -> GpbOperationDecoder.parseAmountMinor("1,005"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void parseAmountMinorMatchesDecimalFormat() throws ParseException {
+        final DecimalFormat decimals = new DecimalFormat("###.##", DecimalFormatSymbols.getInstance(new Locale("ru")));
+        decimals.setParseBigDecimal(true);
+        final String[] values = {
+                "-4657,48", "0,04", "-3000", "-0", "-0,00", "0,1", "123456789012,34", "99999999,99",
+                "1234567890123456,12"
+        };
+        for (String value : values) {
+            assertThat(GpbOperationDecoder.parseAmountMinor(value))
+                    .as(value)
+                    .isEqualTo(((BigDecimal) decimals.parse(value)).movePointRight(2).longValueExact());
+        }
+        for (long kopecks = -100_000; kopecks <= 100_000; kopecks += 7) {
+            final String value = String.format("%s%d,%02d", kopecks < 0 ? "-" : "", Math.abs(kopecks / 100), Math.abs(kopecks % 100));
+            assertThat(GpbOperationDecoder.parseAmountMinor(value))
+                    .as(value)
+                    .isEqualTo(kopecks);
+        }
+    }
+
+    @Test
+    public void parseDateTime() {
+        assertThat(GpbOperationDecoder.parseDateTime("07.03.2021 15:20:40"))
+                .isEqualTo(LocalDateTime.of(2021, 3, 7, 15, 20, 40));
+        assertThat(GpbOperationDecoder.parseDateTime("31.12.1999 00:00:00"))
+                .isEqualTo(LocalDateTime.of(1999, 12, 31, 0, 0, 0));
+        assertThatThrownBy(() -> GpbOperationDecoder.parseDateTime("7.3.2021 15:20:40"))
+                .isInstanceOf(DateTimeParseException.class);
+    }
+
+    @Test
+    public void detectLayout() {
+        assertThat(GpbOperationDecoder.forHeader(header("Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус"))
+                .layout()).isEqualTo(GpbOperationDecoder.Layout.ACCOUNT);
+        assertThat(GpbOperationDecoder.forHeader(header("Статус,Номер карты,Дата операции,Описание операции,Приход,Расход,Валюта"))
+                .layout()).isEqualTo(GpbOperationDecoder.Layout.CARD);
+        assertThatThrownBy(() -> GpbOperationDecoder.forHeader(header("Дата операции,Описание операции,Приход,Расход,Валюта,Статус")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown layout");
+        assertThatThrownBy(() -> GpbOperationDecoder.forHeader(header("Номер карты,Дата операции,Описание операции,Приход,Валюта,Статус")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Расход");
+    }
+
+    @Test
+    public void decodeAmount() {
+        final GpbOperationDecoder decoder = GpbOperationDecoder.forHeader(
+                header("Номер счета,Дата операции,Описание операции,Приход,Расход,Валюта,Комиссия,Статус"));
+
+        assertThat(decoder.decode(row("40817810518370123456", "07.03.2021 00:00:00", "Покупка", "", "-12,50", "RUB", "", ""))
+                .operationAmountMinor()).isEqualTo(-1250L);
+        assertThat(decoder.decode(row("40817810518370123456", "07.03.2021 00:00:00", "Покупка", " ", "", "RUB", "1,00", ""))
+                .operationAmountMinor()).isEqualTo(100L);
+
+        final GpbOperation zero = decoder.decode(row("40817810518370123456", "07.03.2021 00:00:00", "Покупка", "", "-0,00", "RUB", "", ""));
+        assertThat(zero.operationAmountMinor()).isZero();
+        assertThat(zero.negativeZero()).isTrue();
+        assertThat(Double.toString(zero.operationAmount())).isEqualTo("-0.0");
+        assertThat(decoder.decode(row("40817810518370123456", "07.03.2021 00:00:00", "Покупка", "0,00", "", "RUB", "", ""))
+                .negativeZero()).isFalse();
+
+        assertThatThrownBy(() -> decoder.decode(row("40817810518370123456", "07.03.2021 00:00:00", "Покупка", "12abc", "-12,50", "RUB", "", "")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Приход")
+                .hasMessageContaining("12abc");
+        assertThatThrownBy(() -> decoder.decode(row("40817810518370123456", "07.03.2021 00:00:00", "Покупка", "", "n/a", "RUB", "", "")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Расход");
+    }
+
+    private static GpbOperationDecoder.Row row(String... values) {
+        return new GpbOperationDecoder.Row() {
+            @Override
+            public CharSequence chars(int column) {
+                return values[column];
+            }
+
+            @Override
+            public String string(int column) {
+                return values[column];
+            }
+        };
+    }
+
+    private static Map<String, Integer> header(String columns) {
+        final Map<String, Integer> header = new HashMap<>();
+        final String[] names = columns.split(",");
+        for (int i = 0; i < names.length; i++) {
+            header.put(names[i], i);
+        }
+        return header;
+    }
+}